@@ -1,14 +1,23 @@
 package cn.roc.dm.common.annotation;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import cn.roc.wt.common.log.LogLevel;
 import cn.roc.wt.common.log.LoggerFactoryUtil;
+import cn.roc.wt.common.log.ResultLogSerializer;
+import cn.roc.wt.common.metrics.LatencyHistogram;
+import cn.roc.wt.common.metrics.LatencyRegistry;
 import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.AfterReturning;
+import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.stereotype.Component;
-import com.alibaba.fastjson.JSON;
 
 
 
@@ -16,17 +25,119 @@ import com.alibaba.fastjson.JSON;
 @Component
 public class SystemLogAspect {
 
+    /**
+     * 目标类、切点方法到描述的缓存；同一方法被多个子类继承时，按各自的运行时类区分
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, String>> SERVICE_DESCRIPTIONS =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, String>>();
+
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, String>> CONTROLLER_DESCRIPTIONS =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, String>>();
+
+    /**
+     * 切点方法到耗时统计的缓存，统计数据在名为services、controllers的{@link LatencyRegistry}中，
+     * 可通过JMX和/admin/latency.json查看
+     */
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>> SERVICE_METRICS =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>>();
+
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>> CONTROLLER_METRICS =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>>();
+
+    private static final LatencyRegistry SERVICE_LATENCY = LatencyRegistry.get("services");
+
+    private static final LatencyRegistry CONTROLLER_LATENCY = LatencyRegistry.get("controllers");
 	
-	//Service层切点    
-    @Pointcut("@annotation(cn.roc.wt.common.annotation.SystemServiceLog)")
+	//Service层切点，限定execution，编译期织入时不再匹配调用方的call连接点
+    @Pointcut("execution(* *(..)) && @annotation(cn.roc.wt.common.annotation.SystemServiceLog)")
     public  void serviceAspect() {}
     
     //Controller层切点    
-    @Pointcut("@annotation(cn.roc.wt.common.annotation.SystemControllerLog)")
+    @Pointcut("execution(* *(..)) && @annotation(cn.roc.wt.common.annotation.SystemControllerLog)")
      public  void controllerAspect() {}
     
     
     
+    /**
+     * service 层 耗时、调用次数、出错次数、并发数统计
+     * @param joinPoint
+     * @return
+     * @throws Throwable
+     */
+    @Around("serviceAspect()")
+    public Object aroundService(ProceedingJoinPoint joinPoint) throws Throwable {
+        return proceedTimed(joinPoint, SERVICE_METRICS, SERVICE_LATENCY);
+    }
+
+    /**
+     * controller 层 耗时、调用次数、出错次数、并发数统计
+     * @param joinPoint
+     * @return
+     * @throws Throwable
+     */
+    @Around("controllerAspect()")
+    public Object aroundController(ProceedingJoinPoint joinPoint) throws Throwable {
+        return proceedTimed(joinPoint, CONTROLLER_METRICS, CONTROLLER_LATENCY);
+    }
+
+    private static Object proceedTimed(ProceedingJoinPoint joinPoint,
+            ConcurrentMap<Class<?>, ConcurrentMap<Method, LatencyHistogram>> cache, LatencyRegistry registry) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Class<?> targetClass = getTargetClass(joinPoint, method);
+        ConcurrentMap<Method, LatencyHistogram> methods = methodsOf(cache, targetClass);
+        LatencyHistogram histogram = methods.get(method);
+        if (histogram == null) {
+            histogram = registry.histogram(getMetricKey(targetClass, method));
+            methods.putIfAbsent(method, histogram);
+        }
+        histogram.enter();
+        long start = System.nanoTime();
+        boolean error = true;
+        try {
+            Object result = joinPoint.proceed();
+            error = false;
+            return result;
+        } finally {
+            histogram.exit(System.nanoTime() - start, error);
+        }
+    }
+
+    /**
+     * 运行时的目标类；编译期织入的静态方法没有目标对象，取声明方法的类
+     */
+    private static Class<?> getTargetClass(JoinPoint joinPoint, Method method) {
+        Object target = joinPoint.getTarget();
+        return target != null ? target.getClass() : method.getDeclaringClass();
+    }
+
+    private static <T> ConcurrentMap<Method, T> methodsOf(ConcurrentMap<Class<?>, ConcurrentMap<Method, T>> cache,
+            Class<?> targetClass) {
+        ConcurrentMap<Method, T> methods = cache.get(targetClass);
+        if (methods == null) {
+            methods = new ConcurrentHashMap<Method, T>();
+            ConcurrentMap<Method, T> existing = cache.putIfAbsent(targetClass, methods);
+            if (existing != null) {
+                methods = existing;
+            }
+        }
+        return methods;
+    }
+
+    /**
+     * 统计用的方法名：类名.方法名(参数类型)，区分重载方法
+     */
+    private static String getMetricKey(Class<?> targetClass, Method method) {
+        StringBuilder key = new StringBuilder(targetClass.getSimpleName()).append('.').append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes[i].getSimpleName());
+        }
+        return key.append(')').toString();
+    }
+
     /**
      * controller 层 返回结果日志打印
      * @param joinPoint
@@ -36,11 +147,12 @@ public class SystemLogAspect {
     public void doAfter(JoinPoint joinPoint,Object retVal) {
     	
        try {
-    	    if(retVal instanceof String){
-    	    	 LoggerFactoryUtil.access(getControllerMethodDescription(joinPoint)+" result of returns : "+retVal);
-    	    }else{
-    	    	LoggerFactoryUtil.access(getControllerMethodDescription(joinPoint)+" result of returns : "+JSON.toJSONString(retVal));
+    	    // access日志未开启时不查找描述、不序列化返回值
+    	    if(!LoggerFactoryUtil.isAccessEnabled(LogLevel.DEBUG)){
+    	    	return;
     	    }
+    	    // 返回值在后台线程序列化，超长截断
+    	    ResultLogSerializer.getInstance().submit(getControllerMethodDescription(joinPoint), retVal);
 	   } catch (Exception e) {
 		   LoggerFactoryUtil.error("com.ea.bic.common.annotation.SystemLogAspect.controllerAspect.affterReturning 异常", e);
 	   }
@@ -56,26 +168,9 @@ public class SystemLogAspect {
      * @return 方法描述  
      * @throws Exception  
      */    
-     @SuppressWarnings("rawtypes")
-	public  static String getServiceMthodDescription(JoinPoint joinPoint)    
-             throws Exception {    
-        String targetName = joinPoint.getTarget().getClass().getName();    
-        String methodName = joinPoint.getSignature().getName();    
-        Object[] arguments = joinPoint.getArgs();    
-        Class targetClass = Class.forName(targetName);    
-        Method[] methods = targetClass.getMethods();    
-        String description = "";    
-         for (Method method : methods) {    
-             if (method.getName().equals(methodName)) {    
-                Class[] clazzs = method.getParameterTypes();    
-                 if (clazzs.length == arguments.length) {    
-                    description =targetName+"."+methodName+": "+method.getAnnotation(SystemServiceLog. class).description();    
-                     break;
-                }    
-            }    
-        }    
-         return description;    
-     }    
+    public static String getServiceMthodDescription(JoinPoint joinPoint) throws Exception {
+        return getDescription(joinPoint, SERVICE_DESCRIPTIONS, SystemServiceLog.class);
+    }
     
     /**  
      * 获取注解中对方法的描述信息 用于Controller层注解  
@@ -84,23 +179,46 @@ public class SystemLogAspect {
      * @return 方法描述  
      * @throws Exception  
      */    
-     @SuppressWarnings("rawtypes")
-	public  static String getControllerMethodDescription(JoinPoint joinPoint)  throws Exception {
-        String targetName = joinPoint.getTarget().getClass().getName();    
-        String methodName = joinPoint.getSignature().getName();    
-        Object[] arguments = joinPoint.getArgs();    
-        Class targetClass = Class.forName(targetName);    
-        Method[] methods = targetClass.getMethods();    
-        String description = "";    
-         for (Method method : methods) {    
-             if (method.getName().equals(methodName)) {    
-                Class[] clazzs = method.getParameterTypes();    
-                 if (clazzs.length == arguments.length) {
-                    description =targetName+"."+methodName+": "+method.getAnnotation(SystemControllerLog. class).description();    
-                     break;
-                }
-            }
+    public static String getControllerMethodDescription(JoinPoint joinPoint) throws Exception {
+        return getDescription(joinPoint, CONTROLLER_DESCRIPTIONS, SystemControllerLog.class);
+    }
+
+    /**
+     * 按目标类和切点的方法（{@link MethodSignature#getMethod()}）缓存描述，每个类的每个方法只反射解析一次，
+     * 重载方法按参数类型精确区分
+     */
+    private static String getDescription(JoinPoint joinPoint, ConcurrentMap<Class<?>, ConcurrentMap<Method, String>> cache,
+            Class<? extends Annotation> annotationType) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Class<?> targetClass = getTargetClass(joinPoint, method);
+        ConcurrentMap<Method, String> methods = methodsOf(cache, targetClass);
+        String description = methods.get(method);
+        if (description == null) {
+            description = resolveDescription(targetClass, method, annotationType);
+            methods.putIfAbsent(method, description);
         }
-         return description;    
-    }    
+        return description;
+    }
+
+    private static String resolveDescription(Class<?> targetClass, Method method,
+            Class<? extends Annotation> annotationType) {
+        // 切点方法可能是接口上的声明，注解在实现类的方法上
+        Method targetMethod = method;
+        try {
+            targetMethod = targetClass.getMethod(method.getName(), method.getParameterTypes());
+        } catch (NoSuchMethodException e) {
+            // 非public方法，使用切点方法本身
+        }
+        Annotation annotation = targetMethod.getAnnotation(annotationType);
+        if (annotation == null) {
+            annotation = method.getAnnotation(annotationType);
+        }
+        String description = "";
+        if (annotation instanceof SystemServiceLog) {
+            description = ((SystemServiceLog) annotation).description();
+        } else if (annotation instanceof SystemControllerLog) {
+            description = ((SystemControllerLog) annotation).description();
+        }
+        return targetClass.getName() + "." + method.getName() + ": " + description;
+    }
 }
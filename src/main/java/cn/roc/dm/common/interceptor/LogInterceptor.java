@@ -1,46 +1,135 @@
 package cn.roc.dm.common.interceptor;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import cn.roc.wt.common.log.AccessLogRecord;
+import cn.roc.wt.common.log.LogLevel;
+import cn.roc.wt.common.log.LogLineBuilder;
 import cn.roc.wt.common.log.LoggerFactoryUtil;
+import cn.roc.wt.common.metrics.LatencyRegistry;
+import cn.roc.wt.common.metrics.SlowRequestDetector;
 import cn.roc.wt.common.util.CommUtil;
 import cn.roc.wt.common.util.Constants;
 import cn.roc.wt.common.util.StringUtil;
+import cn.roc.wt.filter.CountingHttpServletResponseWrapper;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
 
 
 /**
- * 拦截器打印接口处理总时间
+ * 拦截器打印接口处理总时间（含视图渲染），以及其中的处理时间、渲染时间和响应字节数
+ * <p>接口耗时按映射路径记录到名为{@link #LATENCY_REGISTRY}的{@link LatencyRegistry}，处理时间、渲染时间、响应字节数
+ * 分别记录到加.handler、.render、.bytes后缀的registry，可通过JMX和/admin/latency.json查看
+ * <p>慢请求阈值按路径配置，超过阈值的请求可采样线程栈，见{@link SlowRequestDetector}
  *
  */
 public class LogInterceptor extends HandlerInterceptorAdapter {
+
+	public static final String LATENCY_REGISTRY = "endpoints";
+
+	private final LatencyRegistry latency = LatencyRegistry.get(LATENCY_REGISTRY);
+
+	private final LatencyRegistry handlerLatency = LatencyRegistry.get(LATENCY_REGISTRY + ".handler");
+
+	private final LatencyRegistry renderLatency = LatencyRegistry.get(LATENCY_REGISTRY + ".render");
+
+	private final LatencyRegistry responseBytes = LatencyRegistry.get(LATENCY_REGISTRY + ".bytes", LatencyRegistry.UNIT_BYTES);
+
+	private final SlowRequestDetector slowDetector = SlowRequestDetector.getInstance();
 	
 	@Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-		LoggerFactoryUtil.access("Request|" + getParamStr(request));
+		// 按路径采样，Response日志沿用同一结果
+		boolean sampled = LoggerFactoryUtil.sampleUrl(request.getServletPath());
+		request.setAttribute(Constants.LOG_SAMPLED, sampled);
+		if (sampled) {
+			LoggerFactoryUtil.access(() -> "Request|" + getParamStr(request));
+		}
+		if (LoggerFactoryUtil.isAccessRecordEnabled()) {
+			LoggerFactoryUtil.accessRecord(AccessLogRecord.request(System.currentTimeMillis(),
+					getRequestUrl(request), getQueryString(request), getToken(request),
+					StringUtil.trim(request.getHeader("User-Agent")), getClientIp(request)));
+		}
+		if (slowDetector.isSamplingEnabled()) {
+			request.setAttribute(Constants.SLOW_SAMPLING, slowDetector.begin(request.getServletPath(), getEndpoint(request, handler)));
+		}
 		//设置请求开始时间，用于计算接口总耗时
-		request.setAttribute(Constants.REQUEST_START_TIME, System.currentTimeMillis());
+		request.setAttribute(Constants.REQUEST_START_TIME, System.nanoTime());
 		return true;
 	}
-	
+
 	@Override
     public void postHandle(
             HttpServletRequest request, HttpServletResponse response, Object handler, ModelAndView modelAndView) throws Exception {
+		// 处理结束时间，之后到afterCompletion为视图渲染时间
+		request.setAttribute(Constants.HANDLER_END_TIME, System.nanoTime());
+    }
+
+	/**
+	 * 视图渲染完成或处理抛出异常后打印接口总时间，拆分为处理时间和渲染时间
+	 */
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex)
+			throws Exception {
+		long endTime = System.nanoTime();
 		long totalTime = 0L;
 		String log = null;
 		try{
-	        if (request.getAttribute(Constants.REQUEST_START_TIME) != null) {
-	        	totalTime = System.currentTimeMillis() - Long.valueOf(request.getAttribute(Constants.REQUEST_START_TIME).toString());
+			// 异常请求不经过postHandle，在这里结束栈采样
+			slowDetector.end(request.getAttribute(Constants.SLOW_SAMPLING));
+	        Object startTime = request.getAttribute(Constants.REQUEST_START_TIME);
+	        Object handlerEndTime = request.getAttribute(Constants.HANDLER_END_TIME);
+	        long handleNanos = 0L;
+	        long renderNanos = 0L;
+	        String endpoint = getEndpoint(request, handler);
+	        if (startTime instanceof Long) {
+	        	long elapsedNanos = endTime - (Long) startTime;
+	        	handleNanos = handlerEndTime instanceof Long ? (Long) handlerEndTime - (Long) startTime : elapsedNanos;
+	        	renderNanos = elapsedNanos - handleNanos;
+	        	latency.recordNanos(endpoint, elapsedNanos);
+	        	if (ex != null) {
+	        		latency.histogram(endpoint).recordError();
+	        	}
+	        	handlerLatency.recordNanos(endpoint, handleNanos);
+	        	if (handlerEndTime instanceof Long) {
+	        		renderLatency.recordNanos(endpoint, renderNanos);
+	        	}
+	        	totalTime = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+	        }
+	        long handleTime = TimeUnit.NANOSECONDS.toMillis(handleNanos);
+	        long renderTime = TimeUnit.NANOSECONDS.toMillis(renderNanos);
+	        long bytes = getResponseBytes(request);
+	        if (bytes >= 0) {
+	        	responseBytes.record(endpoint, bytes);
+	        }
+	        // 打印接口请求时间，级别未开启时不拼接
+	        boolean slow = slowDetector.isSlow(request.getServletPath(), totalTime);
+	        // 慢请求、抛出异常和5xx的请求总是打印，不受采样和限流影响
+	        boolean alwaysLog = slow || ex != null || response.getStatus() >= 500;
+	        boolean sampled = !Boolean.FALSE.equals(request.getAttribute(Constants.LOG_SAMPLED));
+	        if (LoggerFactoryUtil.isAccessRecordEnabled()) {
+	        	LoggerFactoryUtil.accessRecord(AccessLogRecord.response(System.currentTimeMillis(),
+	        			getRequestUrl(request), getClientIp(request),
+	        			getTidParam(request), totalTime, handleTime, renderTime, bytes));
 	        }
-	        // 打印接口请求时间
-	        log = "request_url:"+CommUtil.getURL(request)+request.getServletPath()+"|ip:"+ CommUtil.getIpAddr(request)+"|t_id="+getTidParam(request);
-	        LoggerFactoryUtil.access("Response|totalTime="+totalTime+"ms|"+log);
-	       if (totalTime > 300) {
-	            // 超过300毫秒的打印出接口
-	        	LoggerFactoryUtil.info("Response totalTime too long!, totalTime=" + totalTime + "ms|" + log);
+	        if (alwaysLog || (sampled && LoggerFactoryUtil.isAccessEnabled(LogLevel.DEBUG))) {
+	        	log = "request_url:" + getRequestUrl(request) + "|ip:" + getClientIp(request) + "|t_id=" + getTidParam(request)
+	        			+ "|handleTime=" + handleTime + "ms|renderTime=" + renderTime + "ms|bytes=" + bytes
+	        			+ "|status=" + response.getStatus() + (ex == null ? "" : "|error=" + ex.getClass().getName());
+	        }
+	        if (alwaysLog) {
+	        	LoggerFactoryUtil.accessAlways("Response|totalTime={}ms|{}", totalTime, log);
+	        } else if (sampled) {
+	        	LoggerFactoryUtil.access("Response|totalTime={}ms|{}", totalTime, log);
+	        }
+	       if (slow) {
+	            // 超过该路径慢请求阈值的打印出接口
+	        	LoggerFactoryUtil.infoAlways("Response totalTime too long!, totalTime={}ms|{}", totalTime, log);
 	        }
 		}catch(Exception e){
 			// 打印接口请求时间
@@ -48,36 +137,96 @@ public class LogInterceptor extends HandlerInterceptorAdapter {
 		}finally{
 			log = null;
 		}
-    }
+	}
+
+	/**
+	 * 响应体字节数，未配置ResponseCountingFilter时返回-1
+	 */
+	private long getResponseBytes(HttpServletRequest request) {
+		Object counter = request.getAttribute(Constants.RESPONSE_COUNTER);
+		return counter instanceof CountingHttpServletResponseWrapper
+				? ((CountingHttpServletResponseWrapper) counter).getByteCount() : -1L;
+	}
 	
-	@SuppressWarnings("unchecked")
 	private String getParamStr(HttpServletRequest request) {
-        String queryString = "";
+        LogLineBuilder line = LogLineBuilder.get();
+        line.append("url=").append(getRequestUrl(request)).append('?');
+        appendParams(line, request);
+        line.append("&token=").append(getToken(request));
+        line.append("&userAgent=").append(StringUtil.trim(request.getHeader("User-Agent")));
+        line.append("&ip=").append(getClientIp(request));
+        return line.toString();
+    }
+
+	private String getQueryString(HttpServletRequest request) {
+        LogLineBuilder line = LogLineBuilder.get();
+        appendParams(line, request);
+        return line.toString();
+    }
+
+	/**
+	 * 参数太长的截断后再打印，见{@link LogLineBuilder#MAX_VALUE_LENGTH}
+	 */
+	@SuppressWarnings("unchecked")
+	private void appendParams(LogLineBuilder line, HttpServletRequest request) {
         Map<String, String[]> params = request.getParameterMap();
-        for (String key : params.keySet()) {
-            String[] values = params.get(key);
-            for (int i = 0; i < values.length; i++) {
-                String value = values[i];
-                if (value.length() > 50) {
-                    // 如果参数太长了，搞短一点再打印
-//                    if (!"data".equals(key)) {// 如果不是data字段，要进行截取
-//                        value = value.substring(0, 50) + "......";
-//                    }
-                    queryString += key + "=" + value + "&";
-                } else {
-                    queryString += key + "=" + value + "&";
-                }
+        for (Map.Entry<String, String[]> param : params.entrySet()) {
+            for (String value : param.getValue()) {
+                line.appendParam(param.getKey(), value);
+            }
+            if (line.isTruncated()) {
+                return;
             }
         }
+    }
+
+	/**
+	 * 请求地址，同一请求只计算一次
+	 */
+	private String getRequestUrl(HttpServletRequest request) {
+		String url = (String) request.getAttribute(Constants.REQUEST_URL);
+		if (url == null) {
+			url = CommUtil.getURL(request) + request.getServletPath();
+			request.setAttribute(Constants.REQUEST_URL, url);
+		}
+		return url;
+	}
+
+	/**
+	 * 客户端ip，同一请求只计算一次
+	 */
+	private String getClientIp(HttpServletRequest request) {
+		String ip = (String) request.getAttribute(Constants.REQUEST_IP);
+		if (ip == null) {
+			ip = CommUtil.getIpAddr(request);
+			request.setAttribute(Constants.REQUEST_IP, ip);
+		}
+		return ip;
+	}
+
+	private String getToken(HttpServletRequest request) {
         String token = request.getHeader("token");
         if (StringUtil.isEmpty(token)) {
             token = request.getParameter("token");
         }
-        queryString += "&token=" + token;
-        String userAgent = StringUtil.trim(request.getHeader("User-Agent"));
-        return "url=" + CommUtil.getURL(request)+request.getServletPath() + "?" + queryString + "&userAgent=" + userAgent + "&ip=" + CommUtil.getIpAddr(request);
+        return token;
     }
 	
+	/**
+	 * 统计耗时用的接口名：请求方法加映射路径（如GET /user/{id}.json），不使用原始url，避免key无限增长
+	 */
+	private String getEndpoint(HttpServletRequest request, Object handler) {
+		Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+		if (pattern != null) {
+			return request.getMethod() + " " + pattern;
+		}
+		if (handler instanceof HandlerMethod) {
+			HandlerMethod method = (HandlerMethod) handler;
+			return request.getMethod() + " " + method.getBeanType().getSimpleName() + "#" + method.getMethod().getName();
+		}
+		return request.getMethod() + " " + handler.getClass().getSimpleName();
+	}
+
 	private String getTidParam(HttpServletRequest request){
 		return request.getParameter(Constants.RETURN_TID);
 	}
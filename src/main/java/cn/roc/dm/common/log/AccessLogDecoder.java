@@ -0,0 +1,76 @@
+package cn.roc.dm.common.log;
+
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+import com.alibaba.fastjson.JSONObject;
+
+/**
+ * 二进制access日志的命令行解码工具
+ * <pre>
+ * java -cp ... cn.roc.dm.common.log.AccessLogDecoder [--json] file...
+ * </pre>
+ * 默认输出与文本access日志相同的格式，--json时每行输出一个JSON对象。
+ */
+public class AccessLogDecoder {
+
+    public static void main(String[] args) throws IOException {
+        boolean json = false;
+        int decoded = 0;
+        CachedTimestampFormat format = new CachedTimestampFormat("yyyy-MM-dd HH:mm:ss SSS");
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 64 * 1024);
+        try {
+            for (String arg : args) {
+                if ("--json".equals(arg)) {
+                    json = true;
+                    continue;
+                }
+                try (AccessLogReader reader = new AccessLogReader(new FileInputStream(arg))) {
+                    AccessLogRecord record;
+                    while ((record = reader.read()) != null) {
+                        if (json) {
+                            out.write(toJson(record));
+                        } else {
+                            out.write(format.format(record.getTimestamp()));
+                            out.write('|');
+                            out.write(record.toString());
+                        }
+                        out.write('\n');
+                    }
+                }
+                decoded++;
+            }
+        } finally {
+            out.flush();
+        }
+        if (decoded == 0) {
+            System.err.println("Usage: AccessLogDecoder [--json] file...");
+            System.exit(1);
+        }
+    }
+
+    private static String toJson(AccessLogRecord record) {
+        JSONObject json = new JSONObject(true);
+        json.put("type", record.isRequest() ? "Request" : "Response");
+        json.put("timestamp", record.getTimestamp());
+        json.put("url", record.getUrl());
+        if (record.isRequest()) {
+            json.put("params", record.getParams());
+            json.put("token", record.getToken());
+            json.put("userAgent", record.getUserAgent());
+            json.put("ip", record.getIp());
+        } else {
+            json.put("ip", record.getIp());
+            json.put("tid", record.getTid());
+            json.put("totalTime", record.getTotalTime());
+            json.put("handleTime", record.getHandleTime());
+            json.put("renderTime", record.getRenderTime());
+            json.put("bytes", record.getBytes());
+        }
+        return json.toJSONString();
+    }
+}
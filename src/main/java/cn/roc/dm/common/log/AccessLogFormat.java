@@ -0,0 +1,161 @@
+package cn.roc.dm.common.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 二进制access日志的文件格式
+ * <pre>
+ * 文件头（8字节）：'A' 'L' 'O' 'G'，版本号1字节，3字节保留
+ * 记录头（14字节，定长）：类型1字节，保留1字节，记录体长度4字节（大端），时间戳8字节（大端）
+ * 记录体：
+ *   DICT     varint id，string 内容（url、userAgent的字典项，只在本文件内有效）
+ *   REQUEST  ref url，string params，string token，ref userAgent，string ip
+ *   RESPONSE ref url，string ip，string tid，varint totalTime，
+ *            [varint handleTime，varint renderTime，varint (bytes+1)]（可选，旧文件没有，读取时分别按totalTime、0、-1处理）
+ * varint：无符号LEB128
+ * string：varint(字节数+1)，0表示null，后跟UTF-8字节
+ * ref：varint，0表示null，1表示后跟一个string，大于等于2为字典id
+ * </pre>
+ * 读取时跳过未知类型的记录和记录体末尾未知的字段，末尾不完整的记录视为文件结束。
+ */
+public final class AccessLogFormat {
+
+    static final byte[] MAGIC = {'A', 'L', 'O', 'G'};
+
+    static final byte VERSION = 1;
+
+    static final int FILE_HEADER_SIZE = 8;
+
+    static final int RECORD_HEADER_SIZE = 14;
+
+    static final byte TYPE_DICT = 1;
+
+    static final byte TYPE_REQUEST = 2;
+
+    static final byte TYPE_RESPONSE = 3;
+
+    static final int REF_NULL = 0;
+
+    static final int REF_INLINE = 1;
+
+    static final int FIRST_DICT_ID = 2;
+
+    private AccessLogFormat() {
+    }
+
+    static void writeFileHeader(ByteArrayOutputStream out) {
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        out.write(0);
+        out.write(0);
+        out.write(0);
+    }
+
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static void writeString(ByteArrayOutputStream out, String value) {
+        if (value == null) {
+            out.write(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static void writeInt(byte[] buf, int off, int value) {
+        buf[off] = (byte) (value >>> 24);
+        buf[off + 1] = (byte) (value >>> 16);
+        buf[off + 2] = (byte) (value >>> 8);
+        buf[off + 3] = (byte) value;
+    }
+
+    static void writeLong(byte[] buf, int off, long value) {
+        writeInt(buf, off, (int) (value >>> 32));
+        writeInt(buf, off + 4, (int) value);
+    }
+
+    static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+                | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    static long readLong(byte[] buf, int off) {
+        return ((long) readInt(buf, off) << 32) | (readInt(buf, off + 4) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 读满len字节，返回实际读到的字节数，小于len表示到达流末尾
+     */
+    static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        int read = 0;
+        while (read < len) {
+            int n = in.read(buf, off + read, len - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    /**
+     * 顺序解析记录体的游标
+     */
+    static final class Cursor {
+
+        private final byte[] buf;
+
+        private int pos;
+
+        private final int end;
+
+        Cursor(byte[] buf, int off, int len) {
+            this.buf = buf;
+            this.pos = off;
+            this.end = off + len;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        boolean hasRemaining() {
+            return pos < end;
+        }
+
+        String readString() throws IOException {
+            long length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            int size = (int) (length - 1);
+            if (size < 0 || size > end - pos) {
+                throw new IOException("Truncated string");
+            }
+            String value = new String(buf, pos, size, StandardCharsets.UTF_8);
+            pos += size;
+            return value;
+        }
+    }
+}
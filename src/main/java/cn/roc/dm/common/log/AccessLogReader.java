@@ -0,0 +1,149 @@
+package cn.roc.dm.common.log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 顺序读取二进制access日志（{@link AccessLogFormat}），gzip压缩过的文件自动解压
+ * <pre>
+ * try (AccessLogReader reader = new AccessLogReader(new FileInputStream(file))) {
+ *     AccessLogRecord record;
+ *     while ((record = reader.read()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * 非线程安全。
+ */
+public class AccessLogReader implements Closeable {
+
+    private final InputStream in;
+
+    private final byte[] header = new byte[AccessLogFormat.RECORD_HEADER_SIZE];
+
+    private byte[] body = new byte[1024];
+
+    private final List<String> dictionary = new ArrayList<String>();
+
+    private boolean eof;
+
+    public AccessLogReader(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 64 * 1024);
+        buffered.mark(2);
+        int b1 = buffered.read();
+        int b2 = buffered.read();
+        buffered.reset();
+        if (b1 == 0x1f && b2 == 0x8b) {
+            this.in = new BufferedInputStream(new GZIPInputStream(buffered, 64 * 1024), 64 * 1024);
+        } else {
+            this.in = buffered;
+        }
+        readFileHeader();
+    }
+
+    private void readFileHeader() throws IOException {
+        byte[] fileHeader = new byte[AccessLogFormat.FILE_HEADER_SIZE];
+        int read = AccessLogFormat.readFully(in, fileHeader, 0, fileHeader.length);
+        if (read == 0) {
+            eof = true;
+            return;
+        }
+        if (read < fileHeader.length) {
+            throw new IOException("Not an access log file");
+        }
+        for (int i = 0; i < AccessLogFormat.MAGIC.length; i++) {
+            if (fileHeader[i] != AccessLogFormat.MAGIC[i]) {
+                throw new IOException("Not an access log file");
+            }
+        }
+        if (fileHeader[4] > AccessLogFormat.VERSION) {
+            throw new IOException("Unsupported access log version " + fileHeader[4]);
+        }
+    }
+
+    /**
+     * 读取下一条记录，没有更多记录时返回null
+     */
+    public AccessLogRecord read() throws IOException {
+        while (!eof) {
+            if (AccessLogFormat.readFully(in, header, 0, header.length) < header.length) {
+                // 末尾不完整的记录视为文件结束
+                eof = true;
+                return null;
+            }
+            byte type = header[0];
+            int length = AccessLogFormat.readInt(header, 2);
+            long timestamp = AccessLogFormat.readLong(header, 6);
+            if (length < 0) {
+                throw new IOException("Corrupted record length " + length);
+            }
+            if (body.length < length) {
+                body = new byte[Math.max(length, body.length * 2)];
+            }
+            if (AccessLogFormat.readFully(in, body, 0, length) < length) {
+                eof = true;
+                return null;
+            }
+            AccessLogFormat.Cursor cursor = new AccessLogFormat.Cursor(body, 0, length);
+            switch (type) {
+                case AccessLogFormat.TYPE_DICT:
+                    readDict(cursor);
+                    break;
+                case AccessLogFormat.TYPE_REQUEST:
+                    return AccessLogRecord.request(timestamp, readRef(cursor), cursor.readString(),
+                            cursor.readString(), readRef(cursor), cursor.readString());
+                case AccessLogFormat.TYPE_RESPONSE:
+                    return readResponse(timestamp, cursor);
+                default:
+                    // 未知类型，跳过
+                    break;
+            }
+        }
+        return null;
+    }
+
+    private AccessLogRecord readResponse(long timestamp, AccessLogFormat.Cursor cursor) throws IOException {
+        String url = readRef(cursor);
+        String ip = cursor.readString();
+        String tid = cursor.readString();
+        long totalTime = cursor.readVarint();
+        if (!cursor.hasRemaining()) {
+            return AccessLogRecord.response(timestamp, url, ip, tid, totalTime);
+        }
+        return AccessLogRecord.response(timestamp, url, ip, tid, totalTime, cursor.readVarint(), cursor.readVarint(),
+                cursor.readVarint() - 1);
+    }
+
+    private void readDict(AccessLogFormat.Cursor cursor) throws IOException {
+        int index = (int) cursor.readVarint() - AccessLogFormat.FIRST_DICT_ID;
+        String value = cursor.readString();
+        while (dictionary.size() <= index) {
+            dictionary.add(null);
+        }
+        dictionary.set(index, value);
+    }
+
+    private String readRef(AccessLogFormat.Cursor cursor) throws IOException {
+        long ref = cursor.readVarint();
+        if (ref == AccessLogFormat.REF_NULL) {
+            return null;
+        } else if (ref == AccessLogFormat.REF_INLINE) {
+            return cursor.readString();
+        }
+        int index = (int) (ref - AccessLogFormat.FIRST_DICT_ID);
+        if (index < 0 || index >= dictionary.size()) {
+            throw new IOException("Unknown dictionary id " + ref);
+        }
+        return dictionary.get(index);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
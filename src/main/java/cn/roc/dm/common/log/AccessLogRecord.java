@@ -0,0 +1,138 @@
+package cn.roc.dm.common.log;
+
+/**
+ * 一条结构化的access日志，由{@link BinaryAccessLogAppender}按{@link AccessLogFormat}写成二进制
+ * <p>REQUEST对应LogInterceptor.preHandle的"Request|"日志，RESPONSE对应afterCompletion的"Response|"日志。
+ */
+public class AccessLogRecord {
+
+    public static final byte TYPE_REQUEST = AccessLogFormat.TYPE_REQUEST;
+
+    public static final byte TYPE_RESPONSE = AccessLogFormat.TYPE_RESPONSE;
+
+    private byte type;
+
+    private long timestamp;
+
+    private String url;
+
+    private String params;
+
+    private String token;
+
+    private String userAgent;
+
+    private String ip;
+
+    private String tid;
+
+    private long totalTime;
+
+    private long handleTime;
+
+    private long renderTime;
+
+    private long bytes = -1L;
+
+    public static AccessLogRecord request(long timestamp, String url, String params, String token,
+                                          String userAgent, String ip) {
+        AccessLogRecord record = new AccessLogRecord();
+        record.type = TYPE_REQUEST;
+        record.timestamp = timestamp;
+        record.url = url;
+        record.params = params;
+        record.token = token;
+        record.userAgent = userAgent;
+        record.ip = ip;
+        return record;
+    }
+
+    public static AccessLogRecord response(long timestamp, String url, String ip, String tid, long totalTime) {
+        return response(timestamp, url, ip, tid, totalTime, totalTime, 0L, -1L);
+    }
+
+    /**
+     * @param handleTime 处理时间（毫秒）
+     * @param renderTime 视图渲染时间（毫秒）
+     * @param bytes 响应体字节数，未知时为-1
+     */
+    public static AccessLogRecord response(long timestamp, String url, String ip, String tid, long totalTime,
+                                           long handleTime, long renderTime, long bytes) {
+        AccessLogRecord record = new AccessLogRecord();
+        record.type = TYPE_RESPONSE;
+        record.timestamp = timestamp;
+        record.url = url;
+        record.ip = ip;
+        record.tid = tid;
+        record.totalTime = totalTime;
+        record.handleTime = handleTime;
+        record.renderTime = renderTime;
+        record.bytes = bytes;
+        return record;
+    }
+
+    public boolean isRequest() {
+        return type == TYPE_REQUEST;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getParams() {
+        return params;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public String getTid() {
+        return tid;
+    }
+
+    public long getTotalTime() {
+        return totalTime;
+    }
+
+    public long getHandleTime() {
+        return handleTime;
+    }
+
+    public long getRenderTime() {
+        return renderTime;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 与文本access日志相同的格式
+     */
+    @Override
+    public String toString() {
+        if (isRequest()) {
+            return "Request|url=" + url + "?" + (params == null ? "" : params) + "&token=" + token
+                    + "&userAgent=" + userAgent + "&ip=" + ip;
+        }
+        return "Response|totalTime=" + totalTime + "ms|request_url:" + url + "|ip:" + ip + "|t_id=" + tid
+                + "|handleTime=" + handleTime + "ms|renderTime=" + renderTime + "ms|bytes=" + bytes;
+    }
+}
@@ -0,0 +1,378 @@
+package cn.roc.dm.common.log;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Category;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.SimpleLayout;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.spi.AppenderAttachable;
+import org.apache.log4j.spi.LocationInfo;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.ThrowableInformation;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+/**
+ * 异步日志分发：请求线程只把日志写入{@link LogEventRingBuffer}，由单个后台线程批量交给log4j的appender输出，
+ * appender的同步锁和磁盘写入都只在后台线程上发生。
+ * <p>每批日志中属于同一个{@link DailyMaxSizeRollingFileAppender}的整批交给{@link DailyMaxSizeRollingFileAppender#appendBatch(List)}，
+ * 一次加锁、一次flush；其他appender逐条输出。
+ * <p>时间戳和线程名在请求线程上记录，%d、%t的输出与同步方式一致。
+ * 只有appender的layout用到位置信息（%F、%L、%M、%C、%l）时才在请求线程上取调用栈，
+ * 结果为调用本类的LoggerFactoryUtil中的位置，与同步方式下经slf4j转发后的结果相同。
+ */
+public class AsyncLogDispatcher {
+
+    private static final String FQCN = AsyncLogDispatcher.class.getName();
+
+    /**
+     * 未取调用栈时的位置信息，只在layout配置变化、尚未重新判断时用到
+     */
+    private static final LocationInfo UNKNOWN_LOCATION = new LocationInfo("LoggerFactoryUtil.java",
+            LoggerFactoryUtil.class.getName(), "log", "?");
+
+    private static final Pattern LOCATION_CONVERSION = Pattern.compile("%[-.0-9]*[CFLlM]");
+
+    /**
+     * 每批最多处理的事件数
+     */
+    static final int BATCH_SIZE = 256;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final LogEventRingBuffer buffer;
+
+    private final LogOverflowPolicy overflowPolicy;
+
+    private final int sampleRate;
+
+    private final Thread writer;
+
+    private volatile boolean running = true;
+
+    /**
+     * 停止后的最后一次输出与停止后入队的生产者之间互斥，见{@link #dispatch}
+     */
+    private final Object drainLock = new Object();
+
+    private boolean writerDone;
+
+    private final ConcurrentMap<Logger, Route> routes = new ConcurrentHashMap<Logger, Route>();
+
+    /**
+     * 当前批次中按appender分组的日志，只由输出线程访问
+     */
+    private final Map<DailyMaxSizeRollingFileAppender, List<LoggingEvent>> pending =
+            new IdentityHashMap<DailyMaxSizeRollingFileAppender, List<LoggingEvent>>();
+
+    private volatile boolean writerParked;
+
+    private final LongAdder enqueued = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder blocked = new LongAdder();
+
+    private final LongAdder overflowed = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LogEventRingBuffer.Handler appendHandler = new LogEventRingBuffer.Handler() {
+        @Override
+        public void handle(LogEventRingBuffer.LogEvent event) {
+            append(event);
+        }
+    };
+
+    /**
+     * @param bufferSize 队列容量
+     * @param overflowPolicy 队列满时的处理策略
+     * @param sampleRate SAMPLE策略下每多少条保留一条
+     */
+    public AsyncLogDispatcher(int bufferSize, LogOverflowPolicy overflowPolicy, int sampleRate) {
+        this.buffer = new LogEventRingBuffer(bufferSize);
+        this.overflowPolicy = overflowPolicy == null ? LogOverflowPolicy.BLOCK : overflowPolicy;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交一条日志，级别未开启时直接忽略
+     */
+    public void dispatch(Logger logger, Level level, String message, Throwable throwable) {
+        if (!logger.isEnabledFor(level)) {
+            return;
+        }
+        if (!running) {
+            // 已停止，退回同步输出
+            logger.log(FQCN, level, message, throwable);
+            return;
+        }
+        long timeStamp = System.currentTimeMillis();
+        String threadName = Thread.currentThread().getName();
+        LocationInfo location = route(logger, timeStamp).needsLocation ? new LocationInfo(new Throwable(), FQCN) : null;
+        if (buffer.offer(logger, level, message, throwable, timeStamp, threadName, location)) {
+            enqueued.increment();
+            signalWriter();
+            drainIfStopped();
+            return;
+        }
+        overflowed.increment();
+        if (shouldDrop(level)) {
+            dropped.increment();
+            return;
+        }
+        blocked.increment();
+        while (!buffer.offer(logger, level, message, throwable, timeStamp, threadName, location)) {
+            if (!running) {
+                logger.log(FQCN, level, message, throwable);
+                return;
+            }
+            signalWriter();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        enqueued.increment();
+        signalWriter();
+        drainIfStopped();
+    }
+
+    /**
+     * 入队时还在运行、入队后已停止的情况下，输出线程可能已经做完最后一次输出，由当前线程输出剩余的日志
+     */
+    private void drainIfStopped() {
+        if (running) {
+            return;
+        }
+        synchronized (drainLock) {
+            if (writerDone) {
+                while (drainBatch() > 0) {
+                    // continue
+                }
+            }
+        }
+    }
+
+    /**
+     * logger及其上级（additivity为true时）的appender，以及是否需要位置信息；配置变化后重新读取
+     */
+    private Route route(Logger logger, long now) {
+        Route route = routes.get(logger);
+        if (route == null || route.generation != LogLevelCache.generation()
+                || now - route.checkedMillis > LogLevelCache.RECHECK_MILLIS) {
+            route = new Route(logger, LogLevelCache.generation(), now);
+            routes.put(logger, route);
+        }
+        return route;
+    }
+
+    static boolean needsLocation(Appender appender) {
+        Layout layout = appender.getLayout();
+        if (layout == null) {
+            // AsyncAppender等包装其他appender的，无法判断
+            return appender instanceof AppenderAttachable;
+        }
+        if (layout instanceof PatternLayout) {
+            String pattern = ((PatternLayout) layout).getConversionPattern();
+            return pattern != null && LOCATION_CONVERSION.matcher(pattern).find();
+        }
+        return !(layout instanceof SimpleLayout);
+    }
+
+    private boolean shouldDrop(Level level) {
+        switch (overflowPolicy) {
+            case DROP_DEBUG:
+                return !level.isGreaterOrEqual(Level.INFO);
+            case SAMPLE:
+                return !level.isGreaterOrEqual(Level.ERROR) && overflowed.sum() % sampleRate != 0;
+            default:
+                return false;
+        }
+    }
+
+    private void signalWriter() {
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private void drainLoop() {
+        while (running) {
+            if (drainBatch() == 0) {
+                writerParked = true;
+                if (buffer.size() == 0 && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerParked = false;
+            }
+        }
+        // 停止后把剩余的日志输出完
+        synchronized (drainLock) {
+            while (drainBatch() > 0) {
+                // continue
+            }
+            writerDone = true;
+        }
+    }
+
+    private int drainBatch() {
+        int count = 0;
+        while (count < BATCH_SIZE && buffer.poll(appendHandler)) {
+            count++;
+        }
+        if (count > 0) {
+            flushPending();
+            batches.increment();
+        }
+        return count;
+    }
+
+    private void append(LogEventRingBuffer.LogEvent event) {
+        try {
+            ThrowableInformation throwableInfo = event.throwable == null ? null : new ThrowableInformation(event.throwable);
+            LoggingEvent loggingEvent = new LoggingEvent(FQCN, event.logger, event.timeStamp, event.level,
+                    event.message, event.threadName, throwableInfo, null,
+                    event.location == null ? UNKNOWN_LOCATION : event.location, null);
+            Appender[] appenders = route(event.logger, System.currentTimeMillis()).appenders;
+            if (appenders.length == 0) {
+                event.logger.getLoggerRepository().emitNoAppenderWarning(event.logger);
+            }
+            for (Appender appender : appenders) {
+                if (appender instanceof DailyMaxSizeRollingFileAppender) {
+                    List<LoggingEvent> events = pending.get(appender);
+                    if (events == null) {
+                        events = new ArrayList<LoggingEvent>();
+                        pending.put((DailyMaxSizeRollingFileAppender) appender, events);
+                    }
+                    events.add(loggingEvent);
+                } else {
+                    appender.doAppend(loggingEvent);
+                }
+            }
+        } catch (RuntimeException e) {
+            LogLog.error("Async log append failed.", e);
+        }
+    }
+
+    /**
+     * 把本批中各文件appender的日志整批输出
+     */
+    private void flushPending() {
+        for (Map.Entry<DailyMaxSizeRollingFileAppender, List<LoggingEvent>> entry : pending.entrySet()) {
+            try {
+                entry.getKey().appendBatch(entry.getValue());
+            } catch (RuntimeException e) {
+                LogLog.error("Async log append failed.", e);
+            }
+        }
+        // 不在批次之间持有appender，配置重新加载后旧的appender可以被回收
+        pending.clear();
+    }
+
+    /**
+     * 停止后台线程，等待队列中剩余日志输出完成
+     */
+    public void stop(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public LogOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getQueueSize() {
+        return buffer.size();
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    public long getEnqueuedCount() {
+        return enqueued.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getBlockedCount() {
+        return blocked.sum();
+    }
+
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * 与Category.callAppenders相同的appender查找结果
+     */
+    private static final class Route {
+
+        final int generation;
+
+        final long checkedMillis;
+
+        final Appender[] appenders;
+
+        final boolean needsLocation;
+
+        Route(Logger logger, int generation, long checkedMillis) {
+            this.generation = generation;
+            this.checkedMillis = checkedMillis;
+            List<Appender> list = new ArrayList<Appender>();
+            boolean location = false;
+            for (Category category = logger; category != null; category = category.getParent()) {
+                Enumeration<?> e = category.getAllAppenders();
+                while (e.hasMoreElements()) {
+                    Appender appender = (Appender) e.nextElement();
+                    list.add(appender);
+                    location |= needsLocation(appender);
+                }
+                if (!category.getAdditivity()) {
+                    break;
+                }
+            }
+            this.appenders = list.toArray(new Appender[list.size()]);
+            this.needsLocation = location;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncLogDispatcher[policy=" + overflowPolicy + ", queue=" + getQueueSize() + "/" + getCapacity()
+                + ", enqueued=" + getEnqueuedCount() + ", dropped=" + getDroppedCount()
+                + ", blocked=" + getBlockedCount() + ", batches=" + getBatchCount() + "]";
+    }
+}
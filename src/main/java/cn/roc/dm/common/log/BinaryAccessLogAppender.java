@@ -0,0 +1,237 @@
+package cn.roc.dm.common.log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * 把{@link AccessLogRecord}按{@link AccessLogFormat}写成二进制文件的appender，其他类型的消息忽略
+ * <p>url和userAgent写入文件内的字典，重复出现时只写字典id；字典最多<b>DictionarySize</b>项，超出后直接写字符串。
+ * 文件超过<b>MaxFileSize</b>或启动时已存在时改名为File.yyyyMMdd-HHmmss-SSS，每个文件都可以单独解析。
+ * 解析见{@link AccessLogReader}和命令行工具{@link AccessLogDecoder}。
+ */
+public class BinaryAccessLogAppender extends AppenderSkeleton {
+
+    private String file;
+
+    private long maxFileSize = 50 * 1024 * 1024;
+
+    private int bufferSize = 8 * 1024;
+
+    private boolean immediateFlush = true;
+
+    private int dictionarySize = 65536;
+
+    private OutputStream out;
+
+    private long written;
+
+    private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+
+    private final ByteArrayOutputStream dictRecords = new ByteArrayOutputStream(256);
+
+    private final byte[] header = new byte[AccessLogFormat.RECORD_HEADER_SIZE];
+
+    private final CachedTimestampFormat archiveFormat = new CachedTimestampFormat("yyyyMMdd-HHmmss-SSS");
+
+    public void setFile(String file) {
+        this.file = file == null ? null : file.trim();
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setMaxFileSize(String value) {
+        maxFileSize = OptionConverter.toFileSize(value, maxFileSize + 1);
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public void setImmediateFlush(boolean immediateFlush) {
+        this.immediateFlush = immediateFlush;
+    }
+
+    public void setDictionarySize(int dictionarySize) {
+        this.dictionarySize = dictionarySize;
+    }
+
+    @Override
+    public void activateOptions() {
+        if (file == null) {
+            LogLog.error("File option not set for appender [" + name + "].");
+            return;
+        }
+        try {
+            File current = new File(file);
+            if (current.length() > 0) {
+                // 已有文件的字典无法延续，先归档
+                archive(current);
+            }
+            open();
+        } catch (IOException e) {
+            errorHandler.error("Failed to open [" + file + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+        }
+    }
+
+    private void open() throws IOException {
+        File current = new File(file);
+        File parent = current.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        out = new BufferedOutputStream(new FileOutputStream(current, false), bufferSize);
+        dictionary.clear();
+        body.reset();
+        AccessLogFormat.writeFileHeader(body);
+        body.writeTo(out);
+        written = body.size();
+        body.reset();
+    }
+
+    private void archive(File current) {
+        File target = new File(file + "." + archiveFormat.format(System.currentTimeMillis()));
+        for (int i = 1; target.exists(); i++) {
+            target = new File(file + "." + archiveFormat.format(System.currentTimeMillis()) + "-" + i);
+        }
+        if (!current.renameTo(target)) {
+            LogLog.error("Failed to rename [" + current + "] to [" + target + "].");
+        }
+    }
+
+    @Override
+    protected void append(LoggingEvent event) {
+        Object message = event.getMessage();
+        if (!(message instanceof AccessLogRecord) || out == null) {
+            return;
+        }
+        AccessLogRecord record = (AccessLogRecord) message;
+        body.reset();
+        dictRecords.reset();
+        if (record.isRequest()) {
+            writeRef(record.getUrl());
+            AccessLogFormat.writeString(body, record.getParams());
+            AccessLogFormat.writeString(body, record.getToken());
+            writeRef(record.getUserAgent());
+            AccessLogFormat.writeString(body, record.getIp());
+        } else {
+            writeRef(record.getUrl());
+            AccessLogFormat.writeString(body, record.getIp());
+            AccessLogFormat.writeString(body, record.getTid());
+            AccessLogFormat.writeVarint(body, Math.max(0L, record.getTotalTime()));
+            AccessLogFormat.writeVarint(body, Math.max(0L, record.getHandleTime()));
+            AccessLogFormat.writeVarint(body, Math.max(0L, record.getRenderTime()));
+            AccessLogFormat.writeVarint(body, Math.max(0L, record.getBytes() + 1));
+        }
+        try {
+            dictRecords.writeTo(out);
+            writeHeader(record.getType(), body.size(), record.getTimestamp());
+            body.writeTo(out);
+            if (immediateFlush) {
+                out.flush();
+            }
+            written += dictRecords.size() + AccessLogFormat.RECORD_HEADER_SIZE + body.size();
+        } catch (IOException e) {
+            errorHandler.error("Failed to write access record.", e, ErrorCode.WRITE_FAILURE);
+            // 字典可能已与文件内容不一致，换新文件
+            rollOver();
+            return;
+        }
+        if (written >= maxFileSize) {
+            rollOver();
+        }
+    }
+
+    /**
+     * 写入字典引用，首次出现的字符串先生成一条DICT记录
+     */
+    private void writeRef(String value) {
+        if (value == null) {
+            AccessLogFormat.writeVarint(body, AccessLogFormat.REF_NULL);
+            return;
+        }
+        Integer id = dictionary.get(value);
+        if (id == null) {
+            if (dictionary.size() >= dictionarySize) {
+                AccessLogFormat.writeVarint(body, AccessLogFormat.REF_INLINE);
+                AccessLogFormat.writeString(body, value);
+                return;
+            }
+            id = AccessLogFormat.FIRST_DICT_ID + dictionary.size();
+            dictionary.put(value, id);
+            writeDictRecord(id, value);
+        }
+        AccessLogFormat.writeVarint(body, id);
+    }
+
+    private void writeDictRecord(int id, String value) {
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(value.length() + 8);
+        AccessLogFormat.writeVarint(entry, id);
+        AccessLogFormat.writeString(entry, value);
+        AccessLogFormat.writeInt(header, 2, entry.size());
+        header[0] = AccessLogFormat.TYPE_DICT;
+        header[1] = 0;
+        AccessLogFormat.writeLong(header, 6, 0L);
+        dictRecords.write(header, 0, header.length);
+        dictRecords.write(entry.toByteArray(), 0, entry.size());
+    }
+
+    private void writeHeader(byte type, int length, long timestamp) throws IOException {
+        header[0] = type;
+        header[1] = 0;
+        AccessLogFormat.writeInt(header, 2, length);
+        AccessLogFormat.writeLong(header, 6, timestamp);
+        out.write(header);
+    }
+
+    private void rollOver() {
+        closeStream();
+        archive(new File(file));
+        try {
+            open();
+        } catch (IOException e) {
+            errorHandler.error("Failed to open [" + file + "].", e, ErrorCode.FILE_OPEN_FAILURE);
+        }
+    }
+
+    private void closeStream() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            LogLog.error("Could not close [" + file + "].", e);
+        }
+        out = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        closeStream();
+    }
+
+    @Override
+    public boolean requiresLayout() {
+        return false;
+    }
+}
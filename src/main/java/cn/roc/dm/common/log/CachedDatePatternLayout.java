@@ -0,0 +1,91 @@
+package cn.roc.dm.common.log;
+
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.helpers.FormattingInfo;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.PatternConverter;
+import org.apache.log4j.helpers.PatternParser;
+import org.apache.log4j.spi.LoggingEvent;
+
+/**
+ * 与{@link PatternLayout}用法相同，%d用{@link CachedTimestampFormat}输出，同一秒内只替换毫秒数字
+ * <p>只处理没有宽度限制的%d和%-d，其余写法仍交给PatternLayout。
+ */
+public class CachedDatePatternLayout extends PatternLayout {
+
+    static final String ISO8601_PATTERN = "yyyy-MM-dd HH:mm:ss,SSS";
+
+    static final String ABSOLUTE_PATTERN = "HH:mm:ss,SSS";
+
+    static final String DATE_PATTERN = "dd MMM yyyy HH:mm:ss,SSS";
+
+    public CachedDatePatternLayout() {
+        super();
+    }
+
+    public CachedDatePatternLayout(String pattern) {
+        super(pattern);
+    }
+
+    @Override
+    protected PatternParser createPatternParser(String pattern) {
+        return new CachedDatePatternParser(pattern);
+    }
+
+    static String toDatePattern(String option) {
+        if (option == null || "ISO8601".equalsIgnoreCase(option)) {
+            return ISO8601_PATTERN;
+        } else if ("ABSOLUTE".equalsIgnoreCase(option)) {
+            return ABSOLUTE_PATTERN;
+        } else if ("DATE".equalsIgnoreCase(option)) {
+            return DATE_PATTERN;
+        }
+        return option;
+    }
+
+    private static class CachedDatePatternParser extends PatternParser {
+
+        CachedDatePatternParser(String pattern) {
+            super(pattern);
+        }
+
+        @Override
+        protected void finalizeConverter(char c) {
+            // currentLiteral此时是"%d"或"%-d"时没有宽度限制，可以直接追加
+            String spec = currentLiteral.toString();
+            if (c != 'd' || !("%d".equals(spec) || "%-d".equals(spec))) {
+                super.finalizeConverter(c);
+                return;
+            }
+            String datePattern = toDatePattern(extractOption());
+            CachedTimestampFormat format;
+            try {
+                format = new CachedTimestampFormat(datePattern);
+            } catch (IllegalArgumentException e) {
+                LogLog.error("Could not instantiate SimpleDateFormat with " + datePattern, e);
+                format = new CachedTimestampFormat(ISO8601_PATTERN);
+            }
+            addConverter(new CachedDateConverter(formattingInfo, format));
+        }
+    }
+
+    private static class CachedDateConverter extends PatternConverter {
+
+        private final CachedTimestampFormat format;
+
+        CachedDateConverter(FormattingInfo formattingInfo, CachedTimestampFormat format) {
+            super(formattingInfo);
+            this.format = format;
+        }
+
+        @Override
+        public void format(StringBuffer sbuf, LoggingEvent event) {
+            format.format(event.timeStamp, sbuf);
+        }
+
+        @Override
+        protected String convert(LoggingEvent event) {
+            return format.format(event.timeStamp);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package cn.roc.dm.common.log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * 按秒缓存格式化结果的时间格式化工具，线程安全且不加锁
+ * <p>同一秒内只替换毫秒的三位数字，秒变化时才用{@link SimpleDateFormat}重新格式化一次，
+ * 结果放在不可变的{@link Entry}中通过volatile发布，并发刷新时各线程最多重复格式化一次。
+ * 格式中没有毫秒时整秒结果直接复用；毫秒不是SSS三位（如单个S）时无法定位，每次都完整格式化。
+ */
+public class CachedTimestampFormat {
+
+    /**
+     * 格式中没有毫秒，整秒结果可直接复用
+     */
+    static final int NO_MILLIS = -1;
+
+    /**
+     * 无法定位毫秒位置，不缓存
+     */
+    static final int UNCACHEABLE = -2;
+
+    private final String pattern;
+
+    private final ThreadLocal<SimpleDateFormat> formats;
+
+    /**
+     * 毫秒三位数字在格式化结果中的位置
+     */
+    private final int millisIndex;
+
+    private volatile Entry cache;
+
+    public CachedTimestampFormat(String pattern) {
+        this(pattern, null);
+    }
+
+    /**
+     * @param pattern {@link SimpleDateFormat}格式，非法时抛出IllegalArgumentException
+     * @param timeZone 时区，为null时使用默认时区
+     */
+    public CachedTimestampFormat(final String pattern, final TimeZone timeZone) {
+        this.pattern = pattern;
+        final SimpleDateFormat prototype = new SimpleDateFormat(pattern);
+        if (timeZone != null) {
+            prototype.setTimeZone(timeZone);
+        }
+        this.formats = new ThreadLocal<SimpleDateFormat>() {
+            @Override
+            protected SimpleDateFormat initialValue() {
+                return (SimpleDateFormat) prototype.clone();
+            }
+        };
+        this.millisIndex = findMillisIndex(prototype);
+    }
+
+    /**
+     * 用两个不同的毫秒值格式化同一秒，比较结果确定毫秒的位置
+     */
+    private static int findMillisIndex(SimpleDateFormat format) {
+        long second = System.currentTimeMillis() / 1000 * 1000;
+        String first = format.format(new Date(second + 987));
+        String second2 = format.format(new Date(second + 654));
+        if (first.equals(second2)) {
+            return format.format(new Date(second)).equals(first) ? NO_MILLIS : UNCACHEABLE;
+        }
+        int index = first.indexOf("987");
+        if (index < 0 || first.length() != second2.length() || !second2.startsWith("654", index)
+                || !first.regionMatches(0, second2, 0, index)
+                || !first.regionMatches(index + 3, second2, index + 3, first.length() - index - 3)) {
+            return UNCACHEABLE;
+        }
+        String zero = format.format(new Date(second));
+        if (!zero.startsWith("000", index)) {
+            return UNCACHEABLE;
+        }
+        return index;
+    }
+
+    public String format(long millis) {
+        if (millisIndex == UNCACHEABLE) {
+            return formats.get().format(new Date(millis));
+        }
+        Entry entry = entry(millis);
+        if (millisIndex == NO_MILLIS) {
+            return entry.text;
+        }
+        char[] chars = entry.chars.clone();
+        patchMillis(chars, millisIndex, millis);
+        return new String(chars);
+    }
+
+    /**
+     * 格式化结果直接追加到buffer，缓存命中时不产生新对象
+     */
+    public void format(long millis, StringBuffer buffer) {
+        if (millisIndex == UNCACHEABLE) {
+            buffer.append(formats.get().format(new Date(millis)));
+            return;
+        }
+        Entry entry = entry(millis);
+        if (millisIndex == NO_MILLIS) {
+            buffer.append(entry.chars);
+            return;
+        }
+        int ms = millisOf(millis);
+        buffer.append(entry.chars, 0, millisIndex)
+                .append((char) ('0' + ms / 100))
+                .append((char) ('0' + ms / 10 % 10))
+                .append((char) ('0' + ms % 10))
+                .append(entry.chars, millisIndex + 3, entry.chars.length - millisIndex - 3);
+    }
+
+    private Entry entry(long millis) {
+        long second = Math.floorDiv(millis, 1000L);
+        Entry entry = cache;
+        if (entry == null || entry.second != second) {
+            entry = new Entry(second, formats.get().format(new Date(second * 1000L)));
+            cache = entry;
+        }
+        return entry;
+    }
+
+    private static void patchMillis(char[] chars, int index, long millis) {
+        int ms = millisOf(millis);
+        chars[index] = (char) ('0' + ms / 100);
+        chars[index + 1] = (char) ('0' + ms / 10 % 10);
+        chars[index + 2] = (char) ('0' + ms % 10);
+    }
+
+    private static int millisOf(long millis) {
+        return (int) Math.floorMod(millis, 1000L);
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * 某一秒的格式化结果，不可变
+     */
+    private static final class Entry {
+
+        final long second;
+
+        final String text;
+
+        final char[] chars;
+
+        Entry(long second, String text) {
+            this.second = second;
+            this.text = text;
+            this.chars = text.toCharArray();
+        }
+    }
+}
@@ -24,14 +24,37 @@ import org.apache.log4j.Layout;
 import org.apache.log4j.helpers.CountingQuietWriter;
 import org.apache.log4j.helpers.LogLog;
 import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
 
 /**
  DailyMaxSizeRollingFileAppender extends {@link FileAppender} so that the
@@ -138,6 +161,22 @@ import java.util.*;
  you want.
 
 
+ <p>按大小切分时，持有appender锁的线程只把当前文件rename为fileName.pending.N并打开新文件，
+ 已有备份的顺延改名（fileName.i -> fileName.i+1）、超过<b>MaxBackupIndex</b>的清理都交给后台线程按提交顺序完成，
+ 备份数记录在内存中，不再逐个探测文件是否存在。进程异常退出遗留的pending文件在下次启动时归档。
+
+ <p><b>Compression</b>设为gzip时，切分出的文件在后台线程上压缩为.gz（fileName.i.gz、fileName.yyyy_MM_dd-HH.gz）；
+ <b>MaxTotalSize</b>限制本appender在日志目录下所有文件的总大小，超出时从最早的备份开始删除。
+ 该上限按appender计算，只统计以本appender的File为前缀的文件，同一目录下其他appender的文件不计入也不会被删除；
+ 默认为0即不限制，需要在每个appender上分别配置。
+
+ <p><b>WriteMode</b>设为mmap时，日志编码后直接写入文件的映射区域（见{@link MappedFileWriter}），
+ 区域按<b>MappedRegionSize</b>分块扩展，切分或关闭时把文件截断到实际长度；BufferedIO、ImmediateFlush在该模式下不起作用。
+
+ <p><b>GroupCommit</b>为true时，日志在调用线程上格式化后先写入线程自己的缓冲区，由{@link GroupCommitter}
+ 每隔<b>CommitInterval</b>毫秒或缓冲达到<b>CommitSize</b>时整批写入文件；<b>FsyncInterval</b>大于0时按该间隔force到磁盘。
+ 崩溃时丢失的日志不超过CommitInterval内的内容，提交耗时、批大小见{@link #getGroupCommitter()}。
+
  @author Eirik Lygre
  @author Ceki G&uuml;lc&uuml;*/
 //roy_modify 文件按时间备份，同时文件太大的话可以换自动按文件大小拆分文件。
@@ -155,6 +194,75 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
     //roy_modify 添加属性
     private long nextRollover = 0;
 
+    /**
+     * 待归档文件名的中缀，fileName.pending.N
+     */
+    static final String PENDING_INFIX = ".pending.";
+
+    static final String COMPRESSION_NONE = "none";
+
+    static final String COMPRESSION_GZIP = "gzip";
+
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final int COMPRESS_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 备份文件的压缩方式，none或gzip
+     */
+    private String compression = COMPRESSION_NONE;
+
+    /**
+     * 日志目录下本appender所有文件的总字节上限，0表示不限制
+     */
+    private long maxTotalSize = 0;
+
+    static final String WRITE_MODE_STREAM = "stream";
+
+    static final String WRITE_MODE_MMAP = "mmap";
+
+    /**
+     * 写入方式，stream或mmap
+     */
+    private String writeMode = WRITE_MODE_STREAM;
+
+    /**
+     * mmap模式下每次映射的字节数
+     */
+    private int mappedRegionSize = 8 * 1024 * 1024;
+
+    private boolean groupCommit = false;
+
+    private long commitInterval = 200;
+
+    private int commitSize = 64 * 1024;
+
+    private long fsyncInterval = 0;
+
+    private volatile GroupCommitter groupCommitter;
+
+    /**
+     * 当前文件的channel，用于force
+     */
+    private FileChannel activeChannel;
+
+    private MappedFileWriter mappedWriter;
+
+    /**
+     * 备份改名、压缩、清理在这个低优先级线程上按提交顺序执行，所有appender共用
+     */
+    private static ExecutorService rolloverExecutor;
+
+    /**
+     * fileName.1 ~ fileName.N的备份数，只在rolloverExecutor线程上读写
+     */
+    private int backupCount;
+
+    /**
+     * 下一个待归档文件的序号，在appender锁内使用
+     */
+    private long pendingSequence;
+
 	//roy_modify 添加方法
     public void setMaxFileSize(String value) {
         maxFileSize = OptionConverter.toFileSize(value, maxFileSize + 1);
@@ -168,15 +276,77 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
     }
 
     //roy_modify 添加方法
+    //通过FileChannel打开文件，追加时直接取channel的大小作为已写入字节数
     public
     synchronized
     void setFile(String fileName, boolean append, boolean bufferedIO, int bufferSize)
             throws IOException {
-        super.setFile(fileName, append, this.bufferedIO, this.bufferSize);
+        LogLog.debug("setFile called: "+fileName+", "+append);
+        if(bufferedIO) {
+            setImmediateFlush(false);
+        }
+        reset();
+        Path path = Paths.get(fileName);
+        boolean mmap = WRITE_MODE_MMAP.equals(writeMode);
+        FileChannel channel;
+        try {
+            channel = openChannel(path, append, mmap);
+        } catch(NoSuchFileException ex) {
+            // 目录不存在时先创建
+            Path parent = path.toAbsolutePath().getParent();
+            if(parent == null) {
+                throw ex;
+            }
+            Files.createDirectories(parent);
+            channel = openChannel(path, append, mmap);
+        }
+        long size;
+        Writer fw;
+        if(mmap) {
+            try {
+                size = append ? MappedFileWriter.contentLength(channel) : 0;
+                mappedWriter = new MappedFileWriter(channel, size, mappedRegionSize,
+                        getEncoding() == null ? null : Charset.forName(getEncoding()));
+                fw = mappedWriter;
+            } catch(IOException e) {
+                channel.close();
+                throw e;
+            }
+        } else {
+            mappedWriter = null;
+            size = append ? channel.size() : 0;
+            fw = createWriter(Channels.newOutputStream(channel));
+            if(bufferedIO) {
+                fw = new BufferedWriter(fw, bufferSize);
+            }
+        }
+        this.setQWForFiles(fw);
+        this.activeChannel = channel;
+        ((CountingQuietWriter) qw).setCount(size);
+        this.fileName = fileName;
+        this.fileAppend = append;
+        this.bufferedIO = bufferedIO;
+        this.bufferSize = bufferSize;
+        writeHeader();
+        LogLog.debug("setFile ended");
+    }
+
+    private static FileChannel openChannel(Path path, boolean append, boolean mmap) throws IOException {
+        if(mmap) {
+            // 映射需要读写权限，追加位置由MappedFileWriter自己维护
+            if(append) {
+                return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            }
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
         if(append) {
-            File f = new File(fileName);
-            ((CountingQuietWriter) qw).setCount(f.length());
+            return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
         }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
     }
 
     // The code assumes that the following constants are in a increasing
@@ -214,7 +384,8 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
 
     Date now = new Date();
 
-    SimpleDateFormat sdf;
+    //按秒缓存格式化结果，见CachedTimestampFormat
+    CachedTimestampFormat sdf;
 
     RollingCalendar rpc = new RollingCalendar();
 
@@ -256,6 +427,69 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
         this.maxBackupIndex = maxBackupIndex;
     }
 
+    public void setCompression(String compression) {
+        String value = compression == null ? COMPRESSION_NONE : compression.trim().toLowerCase(Locale.ENGLISH);
+        if (!COMPRESSION_NONE.equals(value) && !COMPRESSION_GZIP.equals(value)) {
+            LogLog.warn("Unsupported compression [" + compression + "] for appender [" + name + "], use none.");
+            value = COMPRESSION_NONE;
+        }
+        this.compression = value;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setMaxTotalSize(String value) {
+        maxTotalSize = OptionConverter.toFileSize(value, 0);
+    }
+
+    public void setWriteMode(String writeMode) {
+        String value = writeMode == null ? WRITE_MODE_STREAM : writeMode.trim().toLowerCase(Locale.ENGLISH);
+        if (!WRITE_MODE_STREAM.equals(value) && !WRITE_MODE_MMAP.equals(value)) {
+            LogLog.warn("Unsupported write mode [" + writeMode + "] for appender [" + name + "], use stream.");
+            value = WRITE_MODE_STREAM;
+        }
+        this.writeMode = value;
+    }
+
+    public String getWriteMode() {
+        return writeMode;
+    }
+
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public void setCommitSize(String value) {
+        long size = OptionConverter.toFileSize(value, commitSize);
+        commitSize = (int) Math.max(1, Math.min(size, Integer.MAX_VALUE));
+    }
+
+    public void setFsyncInterval(long fsyncInterval) {
+        this.fsyncInterval = fsyncInterval;
+    }
+
+    /**
+     * 分组提交的统计，未开启GroupCommit时返回null
+     */
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    public void setMappedRegionSize(String value) {
+        long size = OptionConverter.toFileSize(value, mappedRegionSize);
+        mappedRegionSize = (int) Math.max(64 * 1024, Math.min(size, Integer.MAX_VALUE));
+    }
+
     /** Returns the value of the <b>DatePattern</b> option. */
     public String getDatePattern() {
         return datePattern;
@@ -265,12 +499,26 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
         super.activateOptions();
         if(datePattern != null && fileName != null) {
             now.setTime(System.currentTimeMillis());
-            sdf = new SimpleDateFormat(datePattern);
+            sdf = new CachedTimestampFormat(datePattern);
             int type = computeCheckPeriod();
             printPeriodicity(type);
             rpc.setType(type);
             File file = new File(fileName);
-            scheduledFilename = fileName+sdf.format(new Date(file.lastModified()));
+            scheduledFilename = fileName+sdf.format(file.lastModified());
+            initBackups();
+            if(groupCommit && groupCommitter == null) {
+                groupCommitter = new GroupCommitter(String.valueOf(name), new GroupCommitter.Sink() {
+                    @Override
+                    public void commit(CharSequence text, int events) {
+                        commitBatch(text);
+                    }
+
+                    @Override
+                    public void force() {
+                        forceToDisk();
+                    }
+                }, commitInterval, commitSize, fsyncInterval);
+            }
 
         } else {
             LogLog.error("Either File or DatePattern options are not set for appender ["
@@ -350,7 +598,7 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
             return;
         }
 
-        String datedFilename = fileName+sdf.format(now);
+        String datedFilename = fileName+sdf.format(now.getTime());
         // It is too early to roll over because we are still within the
         // bounds of the current interval. Rollover will occur once the
         // next interval is reached.
@@ -361,37 +609,21 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
         // close current file, and rename it to datedFilename
         this.closeFile();
 
-        File target  = new File(scheduledFilename);
-        if (target.exists()) {
-            target.delete();
-        }
-
-        File file = new File(fileName);
-        boolean result = file.renameTo(target);
+        boolean result = moveQuietly(Paths.get(fileName), Paths.get(scheduledFilename));
         if(result) {
             LogLog.debug(fileName +" -> "+ scheduledFilename);
         } else {
             LogLog.error("Failed to rename ["+fileName+"] to ["+scheduledFilename+"].");
         }
-        //roy_modify 移动fileName.i的文件到scheduledFilename.i的文件
-        int i = 1;
-        while(i>0) {
-            file = new File(fileName + "." + i);
-            if (!file.exists()){
-                break;
-            }
-            target  = new File(scheduledFilename + "." + i);
-            if (target.exists()) {
-                target.delete();
+        //roy_modify 移动fileName.i的文件到scheduledFilename.i的文件，在后台线程上完成
+        final String baseName = fileName;
+        final String previousFilename = scheduledFilename;
+        submitRollover(new Runnable() {
+            @Override
+            public void run() {
+                archiveBackups(baseName, previousFilename);
             }
-            result = file.renameTo(target);
-            if(result) {
-                LogLog.debug(fileName + "." + i +" -> "+ scheduledFilename + "." + i);
-            } else {
-                LogLog.error("Failed to rename ["+fileName + "." + i+"] to ["+scheduledFilename + "." + i+"].");
-            }
-            i++ ;
-        }
+        });
         try {
             // This will also close the file. This is OK since multiple
             // close operations are safe.
@@ -412,6 +644,13 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
      * rollover time and then rollover.
      * */
     protected void subAppend(LoggingEvent event) {
+        checkDateRollover();
+        super.subAppend(event);
+        //roy_modify 写之后判断是否需要切分文件
+        checkSizeRollover();
+    }
+
+    private void checkDateRollover() {
         long n = System.currentTimeMillis();
         if (n >= nextCheck) {
             now.setTime(n);
@@ -426,22 +665,141 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
                 LogLog.error("rollOver() failed.", ioe);
             }
         }
-        super.subAppend(event);
-        //roy_modify 写之后判断是否需要切分文件
+    }
+
+    private void checkSizeRollover() {
         if(fileName != null && qw != null) {
             long size = ((CountingQuietWriter) qw).getCount();
             if (size >= maxFileSize && size >= nextRollover) {
                 rollOverBySize();
             }
         }
+    }
 
+    /**
+     * 开启GroupCommit时，过滤和格式化在调用线程上完成，不持有appender的锁，结果交给{@link GroupCommitter}
+     */
+    public void doAppend(LoggingEvent event) {
+        GroupCommitter committer = groupCommitter;
+        if (committer == null) {
+            super.doAppend(event);
+            return;
+        }
+        if (closed || !isAsSevereAsThreshold(event.getLevel())) {
+            super.doAppend(event);
+            return;
+        }
+        if (!isAccepted(event)) {
+            return;
+        }
+        if (layout == null) {
+            super.doAppend(event);
+            return;
+        }
+        String text;
+        // PatternLayout内部复用同一个StringBuffer，格式化时需要按layout加锁
+        synchronized (layout) {
+            text = layout.format(event);
+        }
+        if (layout.ignoresThrowable()) {
+            String[] lines = event.getThrowableStrRep();
+            if (lines != null) {
+                StringBuilder sb = new StringBuilder(text);
+                for (String line : lines) {
+                    sb.append(line).append(Layout.LINE_SEP);
+                }
+                text = sb.toString();
+            }
+        }
+        if (!committer.append(text)) {
+            // close()已停止分组提交，文件关闭前同步写入
+            super.doAppend(event);
+        }
+    }
+
+    /**
+     * 按过滤器链判断是否输出，与AppenderSkeleton.doAppend相同
+     */
+    private boolean isAccepted(LoggingEvent event) {
+        Filter filter = getFirstFilter();
+        while (filter != null) {
+            int decision = filter.decide(event);
+            if (decision == Filter.DENY) {
+                return false;
+            } else if (decision == Filter.ACCEPT) {
+                return true;
+            }
+            filter = filter.getNext();
+        }
+        return true;
+    }
+
+    /**
+     * 整批追加日志（{@link AsyncLogDispatcher}的后台线程调用）：只加一次锁，写完整批后flush一次，
+     * 而不是每条日志都flush；开启GroupCommit时逐条交给{@link #doAppend(LoggingEvent)}，由{@link GroupCommitter}合并
+     */
+    public void appendBatch(List<LoggingEvent> events) {
+        if (groupCommitter != null) {
+            for (LoggingEvent event : events) {
+                doAppend(event);
+            }
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                for (LoggingEvent event : events) {
+                    super.doAppend(event);
+                }
+                return;
+            }
+            boolean flush = immediateFlush;
+            immediateFlush = false;
+            try {
+                for (LoggingEvent event : events) {
+                    if (isAsSevereAsThreshold(event.getLevel()) && isAccepted(event)) {
+                        append(event);
+                    }
+                }
+            } finally {
+                immediateFlush = flush;
+            }
+            if (flush && qw != null) {
+                qw.flush();
+            }
+        }
+    }
+
+    /**
+     * 把一批日志写入当前文件，写入前后做时间、大小切分检查
+     */
+    private synchronized void commitBatch(CharSequence text) {
+        if (closed || qw == null) {
+            return;
+        }
+        checkDateRollover();
+        qw.write(text.toString());
+        qw.flush();
+        checkSizeRollover();
+    }
+
+    private synchronized void forceToDisk() {
+        if (closed || qw == null || activeChannel == null) {
+            return;
+        }
+        qw.flush();
+        try {
+            if (mappedWriter != null) {
+                mappedWriter.force();
+            } else {
+                activeChannel.force(false);
+            }
+        } catch (IOException e) {
+            LogLog.warn("Failed to force [" + fileName + "] to disk.", e);
+        }
     }
 
     public // synchronization not necessary since doAppend is alreasy synched
     void rollOverBySize() {
-        File target;
-        File file;
-
         if (qw != null) {
             long size = ((CountingQuietWriter) qw).getCount();
             LogLog.debug("rolling over count=" + size);
@@ -449,61 +807,32 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
             //      maxFileSize more bytes are written
             nextRollover = size + maxFileSize;
         }
-        //roy_modify 先查找最大的备份数
-        int maxBackupIndex = 0;
-        while (maxBackupIndex >= 0) {
-            file = new File(fileName + "." + (maxBackupIndex + 1));
-            if (file.exists()) {
-                maxBackupIndex += 1;
-            } else {
-                break;
-            }
+
+        //roy_modify 当前文件只做一次rename，备份顺延交给后台线程
+        final String baseName = fileName;
+        final Path pending = Paths.get(baseName + PENDING_INFIX + (pendingSequence++));
+        Path file = Paths.get(fileName);
+        boolean renameSucceeded;
+        if (qw != null) {
+            qw.flush();
         }
-        //roy_modify 在最大的文件备份数上加1，保证每次都多生成一个文件
-        maxBackupIndex += 1;
-
-        LogLog.debug("maxBackupIndex="+maxBackupIndex);
-
-        boolean renameSucceeded = true;
-        // If maxBackups <= 0, then there is no file renaming to be done.
-        if(maxBackupIndex > 0) {
-            // Delete the oldest file, to keep Windows happy.
-            file = new File(fileName + '.' + maxBackupIndex);
-            if (file.exists())
-                renameSucceeded = file.delete();
-
-            // Map {(maxBackupIndex - 1), ..., 2, 1} to {maxBackupIndex, ..., 3, 2}
-            for (int i = maxBackupIndex - 1; i >= 1 && renameSucceeded; i--) {
-                file = new File(fileName + "." + i);
-                if (file.exists()) {
-                    target = new File(fileName + '.' + (i + 1));
-                    LogLog.debug("Renaming file " + file + " to " + target);
-                    renameSucceeded = file.renameTo(target);
+        try {
+            // 文件仍处于打开状态时rename，新文件打开前旧文件句柄继续有效
+            moveFile(file, pending);
+            renameSucceeded = true;
+        } catch (IOException e) {
+            // 部分平台不允许rename打开中的文件，关闭后重试
+            this.closeFile();
+            renameSucceeded = moveQuietly(file, pending);
+            if (!renameSucceeded) {
+                try {
+                    this.setFile(fileName, true, bufferedIO, bufferSize);
                 }
-            }
-
-            if(renameSucceeded) {
-                // Rename fileName to fileName.1
-                target = new File(fileName + "." + 1);
-
-                this.closeFile(); // keep windows happy.
-
-                file = new File(fileName);
-                LogLog.debug("Renaming file " + file + " to " + target);
-                renameSucceeded = file.renameTo(target);
-                //
-                //   if file rename failed, reopen file with append = true
-                //
-                if (!renameSucceeded) {
-                    try {
-                        this.setFile(fileName, true, bufferedIO, bufferSize);
-                    }
-                    catch(IOException e) {
-                        if (e instanceof InterruptedIOException) {
-                            Thread.currentThread().interrupt();
-                        }
-                        LogLog.error("setFile("+fileName+", true) call failed.", e);
+                catch(IOException ioe) {
+                    if (ioe instanceof InterruptedIOException) {
+                        Thread.currentThread().interrupt();
                     }
+                    LogLog.error("setFile("+fileName+", true) call failed.", ioe);
                 }
             }
         }
@@ -512,6 +841,7 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
         //   if all renames were successful, then
         //
         if (renameSucceeded) {
+            LogLog.debug("Renaming file " + file + " to " + pending);
             try {
                 // This will also close the file. This is OK since multiple
                 // close operations are safe.
@@ -524,7 +854,297 @@ public class DailyMaxSizeRollingFileAppender extends FileAppender {
                 }
                 LogLog.error("setFile("+fileName+", false) call failed.", e);
             }
+            submitRollover(new Runnable() {
+                @Override
+                public void run() {
+                    shiftBackups(baseName, pending);
+                }
+            });
+        }
+    }
+
+    /**
+     * 统计已有的备份数，并归档上次进程退出时遗留的pending文件
+     */
+    private void initBackups() {
+        final String baseName = fileName;
+        final long startSequence = System.currentTimeMillis();
+        pendingSequence = startSequence;
+        submitRollover(new Runnable() {
+            @Override
+            public void run() {
+                int count = 0;
+                while (backupExists(baseName + "." + (count + 1))) {
+                    count++;
+                }
+                backupCount = count;
+                for (Path pending : listPending(baseName, startSequence)) {
+                    shiftBackups(baseName, pending);
+                }
+            }
+        });
+    }
+
+    private static List<Path> listPending(String baseName, long beforeSequence) {
+        Path base = Paths.get(baseName).toAbsolutePath();
+        final String prefix = base.getFileName() + PENDING_INFIX;
+        TreeMap<Long, Path> pending = new TreeMap<Long, Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base.getParent(), prefix + "*")) {
+            for (Path path : stream) {
+                String sequence = path.getFileName().toString().substring(prefix.length());
+                if (sequence.endsWith(GZIP_SUFFIX)) {
+                    sequence = sequence.substring(0, sequence.length() - GZIP_SUFFIX.length());
+                }
+                try {
+                    long value = Long.parseLong(sequence);
+                    if (value < beforeSequence) {
+                        pending.put(value, path);
+                    }
+                } catch (NumberFormatException e) {
+                    // 不是本appender生成的文件
+                }
+            }
+        } catch (IOException e) {
+            LogLog.warn("Failed to list pending log files of [" + baseName + "].", e);
+        }
+        return new ArrayList<Path>(pending.values());
+    }
+
+    /**
+     * 后台线程：压缩pending文件，fileName.i顺延为fileName.i+1，pending文件改为fileName.1，超过MaxBackupIndex的删除
+     */
+    private void shiftBackups(String baseName, Path pending) {
+        if (!Files.exists(pending)) {
+            return;
+        }
+        Path segment = compress(pending);
+        int count = backupCount;
+        if (maxBackupIndex > 0 && count >= maxBackupIndex) {
+            for (long i = count; i >= maxBackupIndex; i--) {
+                deleteQuietly(Paths.get(baseName + "." + i));
+                deleteQuietly(Paths.get(baseName + "." + i + GZIP_SUFFIX));
+            }
+            count = (int) maxBackupIndex - 1;
+        }
+        for (int i = count; i >= 1; i--) {
+            moveBackup(baseName + "." + i, baseName + "." + (i + 1));
+        }
+        String suffix = segment.toString().endsWith(GZIP_SUFFIX) ? GZIP_SUFFIX : "";
+        Path first = Paths.get(baseName + ".1" + suffix);
+        if (moveQuietly(segment, first)) {
+            LogLog.debug("Renaming file " + segment + " to " + first);
+            count++;
+        } else {
+            LogLog.error("Failed to rename [" + segment + "] to [" + first + "].");
+        }
+        backupCount = count;
+        purgeBySize(baseName);
+    }
+
+    /**
+     * 后台线程：按时间切分后，压缩previousFilename，并把fileName.i移动为previousFilename.i
+     */
+    private void archiveBackups(String baseName, String previousFilename) {
+        Path previous = Paths.get(previousFilename);
+        if (Files.exists(previous)) {
+            compress(previous);
+        }
+        for (int i = 1; i <= backupCount; i++) {
+            moveBackup(baseName + "." + i, previousFilename + "." + i);
+        }
+        backupCount = 0;
+        purgeBySize(baseName);
+    }
+
+    /**
+     * 移动一个备份，压缩过和未压缩的都处理
+     */
+    private static void moveBackup(String source, String target) {
+        boolean moved = false;
+        for (String suffix : new String[] {"", GZIP_SUFFIX}) {
+            Path from = Paths.get(source + suffix);
+            if (Files.exists(from)) {
+                Path to = Paths.get(target + suffix);
+                if (moveQuietly(from, to)) {
+                    LogLog.debug("Renaming file " + from + " to " + to);
+                } else {
+                    LogLog.error("Failed to rename [" + from + "] to [" + to + "].");
+                }
+                moved = true;
+            }
+        }
+        if (!moved) {
+            LogLog.debug("Backup [" + source + "] not found, skipped.");
+        }
+    }
+
+    private static boolean backupExists(String name) {
+        return Files.exists(Paths.get(name)) || Files.exists(Paths.get(name + GZIP_SUFFIX));
+    }
+
+    /**
+     * 按配置压缩文件，返回压缩后的文件；未开启压缩、已压缩或压缩失败时返回原文件
+     */
+    private Path compress(Path source) {
+        if (!COMPRESSION_GZIP.equals(compression) || source.toString().endsWith(GZIP_SUFFIX)) {
+            return source;
+        }
+        Path target = Paths.get(source + GZIP_SUFFIX);
+        Path temp = Paths.get(source + GZIP_SUFFIX + ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), COMPRESS_BUFFER_SIZE)) {
+                Files.copy(source, out);
+            }
+            moveFile(temp, target);
+            Files.delete(source);
+            LogLog.debug("Compressed file " + source + " to " + target);
+            return target;
+        } catch (IOException e) {
+            LogLog.warn("Failed to compress [" + source + "].", e);
+            deleteQuietly(temp);
+            return source;
+        }
+    }
+
+    /**
+     * 日志目录下本appender的文件总大小超过MaxTotalSize时，从最早修改的备份开始删除，当前文件和pending文件不删除
+     */
+    private void purgeBySize(String baseName) {
+        if (maxTotalSize <= 0) {
+            return;
+        }
+        Path base = Paths.get(baseName).toAbsolutePath();
+        String activeName = base.getFileName().toString();
+        String prefix = activeName + ".";
+        List<Path> backups = new ArrayList<Path>();
+        final Map<Path, BasicFileAttributes> attributes = new HashMap<Path, BasicFileAttributes>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(base.getParent(), activeName + "*")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!name.equals(activeName) && !name.startsWith(prefix)) {
+                    continue;
+                }
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                total += attrs.size();
+                if (!name.equals(activeName) && !name.contains(PENDING_INFIX) && !name.endsWith(".tmp")) {
+                    backups.add(path);
+                    attributes.put(path, attrs);
+                }
+            }
+        } catch (IOException e) {
+            LogLog.warn("Failed to list log files of [" + baseName + "].", e);
+            return;
+        }
+        if (total <= maxTotalSize) {
+            return;
+        }
+        Collections.sort(backups, new Comparator<Path>() {
+            @Override
+            public int compare(Path p1, Path p2) {
+                return attributes.get(p1).lastModifiedTime().compareTo(attributes.get(p2).lastModifiedTime());
+            }
+        });
+        for (Path path : backups) {
+            if (total <= maxTotalSize) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(path);
+                total -= attributes.get(path).size();
+                LogLog.debug("Deleted file " + path + " for MaxTotalSize.");
+            } catch (IOException e) {
+                LogLog.warn("Failed to delete [" + path + "].", e);
+                continue;
+            }
+            // 删除的是fileName.i时，备份数不再包含它及之后的序号
+            String index = path.getFileName().toString().substring(prefix.length());
+            if (index.endsWith(GZIP_SUFFIX)) {
+                index = index.substring(0, index.length() - GZIP_SUFFIX.length());
+            }
+            try {
+                backupCount = Math.min(backupCount, Integer.parseInt(index) - 1);
+            } catch (NumberFormatException e) {
+                // 按时间归档的文件
+            }
+        }
+    }
+
+    private static void moveFile(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean moveQuietly(Path source, Path target) {
+        try {
+            moveFile(source, target);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LogLog.warn("Failed to delete [" + path + "].", e);
+        }
+    }
+
+    private static synchronized Future<?> submitRollover(Runnable task) {
+        if (rolloverExecutor == null) {
+            rolloverExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "log-rollover");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        return rolloverExecutor.submit(task);
+    }
+
+    /**
+     * 等待已提交的备份改名、清理完成
+     */
+    public static boolean awaitRollover(long timeoutMillis) {
+        try {
+            submitRollover(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    public void close() {
+        // 先停止分组提交，剩余缓冲写入后再关闭文件；提交线程需要appender的锁，不能在锁内等待
+        GroupCommitter committer = groupCommitter;
+        if (committer != null) {
+            groupCommitter = null;
+            committer.stop(5000L);
+        }
+        synchronized (this) {
+            super.close();
         }
+        awaitRollover(5000L);
     }
 
 }
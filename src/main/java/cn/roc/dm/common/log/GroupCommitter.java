@@ -0,0 +1,260 @@
+package cn.roc.dm.common.log;
+
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * 日志分组提交：各线程先把格式化好的日志写入自己的缓冲区，缓冲区达到commitSize或每隔commitInterval毫秒
+ * 整批交给{@link Sink}写入，fsyncInterval大于0时按该间隔把已写入的内容force到磁盘。
+ * <p>进程崩溃时最多丢失commitInterval（未开启fsync时再加上操作系统回写的延迟）内的日志。
+ * 同一线程的日志保持顺序，不同线程之间按提交批次交错。
+ */
+public class GroupCommitter {
+
+    /**
+     * 批量写入的目标
+     */
+    public interface Sink {
+
+        void commit(CharSequence text, int events);
+
+        void force();
+    }
+
+    private final Sink sink;
+
+    private final long commitIntervalMillis;
+
+    private final int commitSize;
+
+    private final long fsyncIntervalMillis;
+
+    private final Set<ThreadBuffer> buffers = ConcurrentHashMap.newKeySet();
+
+    private final ThreadLocal<ThreadBuffer> localBuffer = new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+            ThreadBuffer buffer = new ThreadBuffer(Thread.currentThread());
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+
+    private final Thread committer;
+
+    private volatile boolean running = true;
+
+    private long lastForceMillis = System.currentTimeMillis();
+
+    private final LongAdder commits = new LongAdder();
+
+    private final LongAdder committedEvents = new LongAdder();
+
+    private final LongAdder committedChars = new LongAdder();
+
+    private final LongAdder commitNanos = new LongAdder();
+
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    private final LongAdder forces = new LongAdder();
+
+    private final LongAdder forceNanos = new LongAdder();
+
+    /**
+     * @param name 提交线程名的后缀
+     * @param commitIntervalMillis 缓冲区最长保留时间
+     * @param commitSize 缓冲区达到该字符数时立即提交
+     * @param fsyncIntervalMillis force到磁盘的间隔，0表示不force
+     */
+    public GroupCommitter(String name, Sink sink, long commitIntervalMillis, int commitSize, long fsyncIntervalMillis) {
+        this.sink = sink;
+        this.commitIntervalMillis = Math.max(1L, commitIntervalMillis);
+        this.commitSize = Math.max(1, commitSize);
+        this.fsyncIntervalMillis = Math.max(0L, fsyncIntervalMillis);
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "log-group-commit-" + name);
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * 追加一条已格式化的日志到当前线程的缓冲区
+     * @return 已开始停止时返回false，日志没有写入缓冲区，调用方需要自己输出
+     */
+    public boolean append(String text) {
+        ThreadBuffer buffer = localBuffer.get();
+        synchronized (buffer) {
+            // 在缓冲区的锁内检查：running变为false之后的最后一次commitAll一定能看到这里追加的内容，
+            // 之后追加的则由调用方输出
+            if (!running) {
+                return false;
+            }
+            buffer.text.append(text);
+            buffer.events++;
+            if (buffer.text.length() >= commitSize) {
+                commit(buffer);
+            }
+        }
+        return true;
+    }
+
+    private void commitLoop() {
+        long parkNanos = TimeUnit.MILLISECONDS.toNanos(commitIntervalMillis);
+        while (running) {
+            LockSupport.parkNanos(this, parkNanos);
+            commitAll();
+            forceIfDue();
+        }
+        commitAll();
+        if (fsyncIntervalMillis > 0) {
+            force();
+        }
+    }
+
+    private void commitAll() {
+        for (ThreadBuffer buffer : buffers) {
+            synchronized (buffer) {
+                if (buffer.events > 0) {
+                    commit(buffer);
+                } else if (buffer.isOwnerDead()) {
+                    buffers.remove(buffer);
+                }
+            }
+        }
+    }
+
+    private void commit(ThreadBuffer buffer) {
+        long start = System.nanoTime();
+        try {
+            sink.commit(buffer.text, buffer.events);
+        } catch (RuntimeException e) {
+            LogLog.error("Group commit failed.", e);
+        }
+        long elapsed = System.nanoTime() - start;
+        commits.increment();
+        committedEvents.add(buffer.events);
+        committedChars.add(buffer.text.length());
+        commitNanos.add(elapsed);
+        long max = maxCommitNanos.get();
+        while (elapsed > max && !maxCommitNanos.compareAndSet(max, elapsed)) {
+            max = maxCommitNanos.get();
+        }
+        buffer.events = 0;
+        if (buffer.text.capacity() > commitSize * 4) {
+            // 偶尔出现的超长日志不长期占用内存
+            buffer.text = new StringBuilder(commitSize + 256);
+        } else {
+            buffer.text.setLength(0);
+        }
+    }
+
+    private void forceIfDue() {
+        if (fsyncIntervalMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastForceMillis >= fsyncIntervalMillis) {
+            force();
+            lastForceMillis = now;
+        }
+    }
+
+    private void force() {
+        long start = System.nanoTime();
+        try {
+            sink.force();
+        } catch (RuntimeException e) {
+            LogLog.error("Log force failed.", e);
+        }
+        forces.increment();
+        forceNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * 停止提交线程，剩余的缓冲内容提交后返回
+     */
+    public void stop(long timeoutMillis) {
+        running = false;
+        LockSupport.unpark(committer);
+        try {
+            committer.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getCommittedEvents() {
+        return committedEvents.sum();
+    }
+
+    public long getCommittedChars() {
+        return committedChars.sum();
+    }
+
+    public double getAverageBatchEvents() {
+        long count = commits.sum();
+        return count == 0 ? 0D : (double) committedEvents.sum() / count;
+    }
+
+    public long getAverageCommitMicros() {
+        long count = commits.sum();
+        return count == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(commitNanos.sum() / count);
+    }
+
+    public long getMaxCommitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxCommitNanos.get());
+    }
+
+    public long getForceCount() {
+        return forces.sum();
+    }
+
+    public long getAverageForceMicros() {
+        long count = forces.sum();
+        return count == 0 ? 0L : TimeUnit.NANOSECONDS.toMicros(forceNanos.sum() / count);
+    }
+
+    @Override
+    public String toString() {
+        return "GroupCommitter[commits=" + getCommitCount() + ", events=" + getCommittedEvents()
+                + ", avgBatch=" + String.format("%.1f", getAverageBatchEvents())
+                + ", avgCommitUs=" + getAverageCommitMicros() + ", maxCommitUs=" + getMaxCommitMicros()
+                + ", forces=" + getForceCount() + ", avgForceUs=" + getAverageForceMicros() + "]";
+    }
+
+    /**
+     * 单个线程的缓冲区，由自身加锁，在所属线程和提交线程之间交接
+     */
+    private static final class ThreadBuffer {
+
+        private final WeakReference<Thread> owner;
+
+        StringBuilder text = new StringBuilder(1024);
+
+        int events;
+
+        ThreadBuffer(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+
+        boolean isOwnerDead() {
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package cn.roc.dm.common.log;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LocationInfo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多生产者、单消费者的有界无锁环形队列，槽位中的事件对象预先分配并循环使用
+ * <p>每个槽位有一个序号：等于写入位置时可写，等于写入位置+1时可读。
+ * 生产者通过CAS抢占写入位置后填充事件并发布序号，消费者按顺序读取后把序号推进一圈释放槽位。
+ */
+class LogEventRingBuffer {
+
+    private final LogEvent[] events;
+
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * 只由消费线程修改
+     */
+    private volatile long head;
+
+    /**
+     * @param capacity 队列容量，向上取整为2的幂
+     */
+    LogEventRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        events = new LogEvent[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            events[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * 写入一条日志事件
+     * @return 队列已满时返回false
+     */
+    boolean offer(Logger logger, Level level, String message, Throwable throwable,
+                  long timeStamp, String threadName, LocationInfo location) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    events[index].set(logger, level, message, throwable, timeStamp, threadName, location);
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * 取出下一条事件交给handler处理后释放槽位，只能由消费线程调用
+     * @return 队列为空时返回false
+     */
+    boolean poll(Handler handler) {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) != pos + 1) {
+            return false;
+        }
+        LogEvent event = events[index];
+        try {
+            handler.handle(event);
+        } finally {
+            event.clear();
+            head = pos + 1;
+            sequences.lazySet(index, pos + mask + 1);
+        }
+        return true;
+    }
+
+    int size() {
+        long size = tail.get() - head;
+        return size < 0 ? 0 : (int) Math.min(size, mask + 1);
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    interface Handler {
+        void handle(LogEvent event);
+    }
+
+    /**
+     * 队列中的日志事件，字段由生产者写入，消费者处理后清空
+     */
+    static class LogEvent {
+
+        Logger logger;
+
+        Level level;
+
+        String message;
+
+        Throwable throwable;
+
+        long timeStamp;
+
+        String threadName;
+
+        /**
+         * 请求线程上取得的位置信息，layout不需要时为null
+         */
+        LocationInfo location;
+
+        void set(Logger logger, Level level, String message, Throwable throwable,
+                 long timeStamp, String threadName, LocationInfo location) {
+            this.logger = logger;
+            this.level = level;
+            this.message = message;
+            this.throwable = throwable;
+            this.timeStamp = timeStamp;
+            this.threadName = threadName;
+            this.location = location;
+        }
+
+        void clear() {
+            logger = null;
+            level = null;
+            message = null;
+            throwable = null;
+            threadName = null;
+            location = null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package cn.roc.dm.common.log;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Category;
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.HierarchyEventListener;
+import org.apache.log4j.spi.LoggerRepository;
+
+/**
+ * 缓存logger的级别判断，避免每次都沿logger层级查找有效级别
+ * <p>Log4jConfigListener重新加载配置时会先移除所有appender再按配置添加，
+ * 通过{@link HierarchyEventListener}收到事件后把全局版本号加1，各缓存发现版本号变化时重新读取；
+ * 最后一次事件之后的{@link #SETTLE_MILLIS}毫秒内每次都重新读取，保证没有appender的logger也能取到新级别。
+ * <p>代码中直接调用Logger.setLevel不会产生事件，每{@link #RECHECK_MILLIS}毫秒也会重新读取一次，
+ * 需要立即生效时调用{@link LoggerFactoryUtil#refreshLevels()}。
+ */
+class LogLevelCache {
+
+    static final long SETTLE_MILLIS = 1000L;
+
+    static final long RECHECK_MILLIS = 1000L;
+
+    private static volatile int generation;
+
+    private static volatile long lastEventMillis;
+
+    private static volatile boolean listenerRegistered;
+
+    private final Logger logger;
+
+    private volatile int threshold;
+
+    /**
+     * 上次读取级别时的全局版本号
+     */
+    private volatile int seenGeneration;
+
+    private volatile long checkedMillis;
+
+    LogLevelCache(Logger logger) {
+        this.logger = logger;
+        registerListener(logger.getLoggerRepository());
+        refresh(generation, System.currentTimeMillis());
+    }
+
+    boolean isEnabled(Level level) {
+        int current = generation;
+        long now = System.currentTimeMillis();
+        if (current != seenGeneration || now - checkedMillis > RECHECK_MILLIS || now - lastEventMillis <= SETTLE_MILLIS) {
+            refresh(current, now);
+        }
+        return level.toInt() >= threshold;
+    }
+
+    /**
+     * 先读版本号再读级别，读取期间又有事件时版本号不一致，下次还会重新读取
+     */
+    private void refresh(int current, long now) {
+        LoggerRepository repository = logger.getLoggerRepository();
+        threshold = Math.max(logger.getEffectiveLevel().toInt(), repository.getThreshold().toInt());
+        checkedMillis = now;
+        seenGeneration = current;
+    }
+
+    /**
+     * 全局版本号，每次配置变化（appender增减）时加1
+     */
+    static int generation() {
+        return generation;
+    }
+
+    /**
+     * 所有缓存失效，下次判断时重新读取
+     */
+    static synchronized void invalidate() {
+        lastEventMillis = System.currentTimeMillis();
+        generation++;
+    }
+
+    private static synchronized void registerListener(LoggerRepository repository) {
+        if (listenerRegistered) {
+            return;
+        }
+        if (repository == null) {
+            repository = LogManager.getLoggerRepository();
+        }
+        repository.addHierarchyEventListener(new HierarchyEventListener() {
+            @Override
+            public void addAppenderEvent(Category cat, Appender appender) {
+                invalidate();
+            }
+
+            @Override
+            public void removeAppenderEvent(Category cat, Appender appender) {
+                invalidate();
+            }
+        });
+        listenerRegistered = true;
+    }
+}
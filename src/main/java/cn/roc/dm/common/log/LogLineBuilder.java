@@ -0,0 +1,130 @@
+package cn.roc.dm.common.log;
+
+/**
+ * 拼接单行日志用的线程内复用的StringBuilder，超长的参数值和整行都会被截断
+ * <pre>
+ * LogLineBuilder line = LogLineBuilder.get();
+ * line.append("url=").append(url).appendParam("key", value);
+ * String message = line.toString();
+ * </pre>
+ * 同一线程内下一次{@link #get()}会清空上一次的内容，不能嵌套使用。
+ */
+public final class LogLineBuilder {
+
+    /**
+     * 单个参数值的最大长度
+     */
+    public static final int MAX_VALUE_LENGTH = 512;
+
+    /**
+     * 整行的最大长度
+     */
+    public static final int MAX_LINE_LENGTH = 8192;
+
+    static final String ELLIPSIS = "......";
+
+    private static final ThreadLocal<LogLineBuilder> BUILDERS = new ThreadLocal<LogLineBuilder>() {
+        @Override
+        protected LogLineBuilder initialValue() {
+            return new LogLineBuilder(MAX_VALUE_LENGTH, MAX_LINE_LENGTH);
+        }
+    };
+
+    private final StringBuilder buf = new StringBuilder(256);
+
+    private final int maxValueLength;
+
+    private final int maxLineLength;
+
+    private boolean truncated;
+
+    LogLineBuilder(int maxValueLength, int maxLineLength) {
+        this.maxValueLength = maxValueLength;
+        this.maxLineLength = maxLineLength;
+    }
+
+    /**
+     * 取当前线程的builder，内容已清空
+     */
+    public static LogLineBuilder get() {
+        LogLineBuilder builder = BUILDERS.get();
+        builder.reset();
+        return builder;
+    }
+
+    void reset() {
+        buf.setLength(0);
+        truncated = false;
+    }
+
+    public LogLineBuilder append(String value) {
+        return append(value, Integer.MAX_VALUE);
+    }
+
+    public LogLineBuilder append(char c) {
+        if (!truncated) {
+            if (buf.length() < maxLineLength) {
+                buf.append(c);
+            } else {
+                truncate();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 追加key=value&amp;，value超过{@link #MAX_VALUE_LENGTH}时截断
+     */
+    public LogLineBuilder appendParam(String key, String value) {
+        append(key);
+        append('=');
+        append(value, maxValueLength);
+        return append('&');
+    }
+
+    /**
+     * 追加value，最多保留limit个字符
+     */
+    public LogLineBuilder append(String value, int limit) {
+        if (truncated) {
+            return this;
+        }
+        if (value == null) {
+            value = "null";
+        }
+        int length = value.length();
+        boolean cut = length > limit;
+        if (cut) {
+            length = limit;
+        }
+        int room = maxLineLength - buf.length();
+        if (length > room) {
+            buf.append(value, 0, Math.max(0, room));
+            truncate();
+            return this;
+        }
+        buf.append(value, 0, length);
+        if (cut) {
+            buf.append(ELLIPSIS);
+        }
+        return this;
+    }
+
+    private void truncate() {
+        buf.append(ELLIPSIS);
+        truncated = true;
+    }
+
+    public int length() {
+        return buf.length();
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    @Override
+    public String toString() {
+        return buf.toString();
+    }
+}
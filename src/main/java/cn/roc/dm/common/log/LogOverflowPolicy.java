@@ -0,0 +1,19 @@
+package cn.roc.dm.common.log;
+
+/**
+ * 异步日志队列已满时的处理策略
+ */
+public enum LogOverflowPolicy {
+    /**
+     * 等待队列有空位，不丢日志
+     */
+    BLOCK,
+    /**
+     * 丢弃DEBUG日志，其他级别等待
+     */
+    DROP_DEBUG,
+    /**
+     * 每sampleRate条保留一条并等待，其余丢弃；ERROR日志始终保留
+     */
+    SAMPLE;
+}
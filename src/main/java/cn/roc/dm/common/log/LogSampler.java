@@ -0,0 +1,328 @@
+package cn.roc.dm.common.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.helpers.LogLog;
+
+/**
+ * access、info日志的采样和限流，配置见config/log-sampling.properties
+ * <ul>
+ * <li>log.sample.url.&lt;路径前缀&gt;=采样比例(0~1)：按请求路径最长前缀匹配，log.sample.url.default为默认比例，
+ * 同一个请求的Request、Response日志使用同一次采样结果</li>
+ * <li>log.sample.&lt;accessLog|infoLog&gt;.rate/burst：每秒最多输出的条数和允许的突发条数，rate为0表示不限流</li>
+ * <li>log.sample.slowMillis：耗时超过该值（默认300）的请求不参与采样和限流</li>
+ * </ul>
+ * ERROR级别的日志总是输出。
+ * <p>采样和限流丢弃的条数通过JMX（{@link #registerMBean(String)}）和/admin/log-sampling.json查看。
+ */
+public class LogSampler implements LogSamplerMXBean {
+
+    static final String KEY_PREFIX = "log.sample.";
+    static final String URL_KEY = "url.";
+    static final String DEFAULT_URL = "default";
+    static final String SLOW_MILLIS_KEY = "slowMillis";
+
+    static final long DEFAULT_SLOW_MILLIS = 300L;
+
+    private final double defaultRate;
+
+    /**
+     * 按前缀长度从长到短排列
+     */
+    private final List<UrlRule> urlRules;
+
+    private final long slowMillis;
+
+    private final Channel access;
+
+    private final Channel info;
+
+    private final LongAdder urlSampled = new LongAdder();
+
+    private final LongAdder urlDropped = new LongAdder();
+
+    private ObjectName objectName;
+
+    private LogSampler(double defaultRate, List<UrlRule> urlRules, long slowMillis, Channel access, Channel info) {
+        this.defaultRate = defaultRate;
+        this.urlRules = urlRules;
+        this.slowMillis = slowMillis;
+        this.access = access;
+        this.info = info;
+    }
+
+    /**
+     * 不采样、不限流
+     */
+    public static LogSampler unlimited() {
+        return new LogSampler(1D, Collections.<UrlRule>emptyList(), DEFAULT_SLOW_MILLIS,
+                new Channel("accessLog", 0, 0), new Channel("infoLog", 0, 0));
+    }
+
+    public static LogSampler load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        return compile(properties);
+    }
+
+    public static LogSampler compile(Properties properties) {
+        double defaultRate = 1D;
+        long slowMillis = DEFAULT_SLOW_MILLIS;
+        List<UrlRule> urlRules = new ArrayList<UrlRule>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.startsWith(KEY_PREFIX + URL_KEY)) {
+                continue;
+            }
+            String path = key.substring((KEY_PREFIX + URL_KEY).length());
+            double rate = parseRate(key, properties.getProperty(key));
+            if (DEFAULT_URL.equals(path)) {
+                defaultRate = rate;
+            } else {
+                urlRules.add(new UrlRule(path, rate));
+            }
+        }
+        Collections.sort(urlRules, new Comparator<UrlRule>() {
+            @Override
+            public int compare(UrlRule r1, UrlRule r2) {
+                return r2.prefix.length() - r1.prefix.length();
+            }
+        });
+        String slow = properties.getProperty(KEY_PREFIX + SLOW_MILLIS_KEY);
+        if (slow != null) {
+            slowMillis = Long.parseLong(slow.trim());
+        }
+        return new LogSampler(defaultRate, urlRules, slowMillis,
+                compileChannel(properties, "accessLog"), compileChannel(properties, "infoLog"));
+    }
+
+    private static Channel compileChannel(Properties properties, String name) {
+        String rate = properties.getProperty(KEY_PREFIX + name + ".rate", "0").trim();
+        String burst = properties.getProperty(KEY_PREFIX + name + ".burst", rate).trim();
+        return new Channel(name, Long.parseLong(rate), Long.parseLong(burst));
+    }
+
+    private static double parseRate(String key, String value) {
+        double rate = Double.parseDouble(value.trim());
+        if (rate < 0D || rate > 1D) {
+            throw new IllegalArgumentException(key + " must be between 0 and 1: " + value);
+        }
+        return rate;
+    }
+
+    /**
+     * 按请求路径采样，返回该请求的日志是否输出
+     */
+    public boolean sampleUrl(String path) {
+        double rate = rateOf(path);
+        boolean sampled = rate >= 1D || (rate > 0D && ThreadLocalRandom.current().nextDouble() < rate);
+        if (sampled) {
+            urlSampled.increment();
+        } else {
+            urlDropped.increment();
+        }
+        return sampled;
+    }
+
+    double rateOf(String path) {
+        if (path != null) {
+            for (UrlRule rule : urlRules) {
+                if (path.startsWith(rule.prefix)) {
+                    return rule.rate;
+                }
+            }
+        }
+        return defaultRate;
+    }
+
+    public boolean isSlow(long elapsedMillis) {
+        return elapsedMillis > slowMillis;
+    }
+
+    @Override
+    public long getSlowMillis() {
+        return slowMillis;
+    }
+
+    public Channel getAccess() {
+        return access;
+    }
+
+    public Channel getInfo() {
+        return info;
+    }
+
+    @Override
+    public long getUrlSampledCount() {
+        return urlSampled.sum();
+    }
+
+    @Override
+    public long getUrlDroppedCount() {
+        return urlDropped.sum();
+    }
+
+    @Override
+    public long getAccessPassedCount() {
+        return access.getPassedCount();
+    }
+
+    @Override
+    public long getAccessLimitedCount() {
+        return access.getLimitedCount();
+    }
+
+    @Override
+    public long getInfoPassedCount() {
+        return info.getPassedCount();
+    }
+
+    @Override
+    public long getInfoLimitedCount() {
+        return info.getLimitedCount();
+    }
+
+    /**
+     * 注册为JMX MBean，同名MBean已存在时不注册
+     */
+    public synchronized void registerMBean(String name) {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(LogSampler.class.getPackage().getName()
+                    + ":type=LogSampler,name=" + ObjectName.quote(name));
+            if (!server.isRegistered(on)) {
+                server.registerMBean(this, on);
+                objectName = on;
+            }
+        } catch (JMException e) {
+            LogLog.error("Failed to register log sampler MBean " + name, e);
+        }
+    }
+
+    /**
+     * 注销{@link #registerMBean(String)}注册的MBean
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LogLog.error("Failed to unregister log sampler MBean " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSampler[urlSampled=" + getUrlSampledCount() + ", urlDropped=" + getUrlDroppedCount()
+                + ", " + access + ", " + info + "]";
+    }
+
+    private static final class UrlRule {
+
+        final String prefix;
+
+        final double rate;
+
+        UrlRule(String prefix, double rate) {
+            this.prefix = prefix;
+            this.rate = rate;
+        }
+    }
+
+    /**
+     * 单个logger的令牌桶限流，按GCRA算法用一个CAS更新的理论到达时间实现，不加锁
+     */
+    public static final class Channel {
+
+        private final String name;
+
+        private final long rate;
+
+        /**
+         * 两次放行之间的间隔
+         */
+        private final long intervalNanos;
+
+        /**
+         * 允许提前放行的时间，对应突发条数
+         */
+        private final long toleranceNanos;
+
+        private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+
+        private final LongAdder passed = new LongAdder();
+
+        private final LongAdder limited = new LongAdder();
+
+        Channel(String name, long rate, long burst) {
+            this.name = name;
+            this.rate = Math.max(0L, rate);
+            this.intervalNanos = this.rate == 0 ? 0L : TimeUnit.SECONDS.toNanos(1) / this.rate;
+            this.toleranceNanos = intervalNanos * Math.max(0L, burst - 1);
+        }
+
+        /**
+         * 取一个令牌，取不到时返回false并计入限流数
+         */
+        public boolean tryAcquire() {
+            if (rate == 0) {
+                passed.increment();
+                return true;
+            }
+            long now = System.nanoTime();
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long base = tat - now > 0 ? tat : now;
+                if (base - now > toleranceNanos) {
+                    limited.increment();
+                    return false;
+                }
+                if (theoreticalArrival.compareAndSet(tat, base + intervalNanos)) {
+                    passed.increment();
+                    return true;
+                }
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getRate() {
+            return rate;
+        }
+
+        public long getPassedCount() {
+            return passed.sum();
+        }
+
+        public long getLimitedCount() {
+            return limited.sum();
+        }
+
+        @Override
+        public String toString() {
+            return name + "[rate=" + rate + ", passed=" + getPassedCount() + ", limited=" + getLimitedCount() + "]";
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package cn.roc.dm.common.log;
+
+/**
+ * {@link LogSampler}的JMX接口，ObjectName为cn.roc.dm.common.log:type=LogSampler,name=&lt;名称&gt;
+ */
+public interface LogSamplerMXBean {
+
+    long getSlowMillis();
+
+    /**
+     * 按请求路径采样保留的请求数
+     */
+    long getUrlSampledCount();
+
+    /**
+     * 按请求路径采样丢弃的请求数
+     */
+    long getUrlDroppedCount();
+
+    long getAccessPassedCount();
+
+    /**
+     * access日志被限流丢弃的条数
+     */
+    long getAccessLimitedCount();
+
+    long getInfoPassedCount();
+
+    /**
+     * info日志被限流丢弃的条数
+     */
+    long getInfoLimitedCount();
+}
@@ -1,8 +1,27 @@
 package cn.roc.dm.common.log;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.helpers.LogLog;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
 
+/**
+ * 日志输出工具类
+ * <p>启动参数-Dlog.async=true时开启异步输出，见{@link AsyncLogDispatcher}，可选参数：
+ * log.async.bufferSize（队列容量，默认8192）、log.async.overflowPolicy（队列满时的策略，默认BLOCK）、
+ * log.async.sampleRate（SAMPLE策略下每多少条保留一条，默认10）
+ * <p>带format参数（"{}"占位符）和{@link Supplier}参数的方法先判断级别，级别未开启时不拼接消息；
+ * 级别判断结果按logger缓存，见{@link LogLevelCache}
+ * <p>accessBinLog开启时，access日志同时以{@link AccessLogRecord}输出，由{@link BinaryAccessLogAppender}写成二进制
+ * <p>access、info日志经过{@link LogSampler}限流，配置文件为classpath下的config/log-sampling.properties；
+ * ERROR级别和accessAlways、infoAlways输出的日志不受限流影响
+ */
 public class LoggerFactoryUtil {
 
 	private static Logger accessLog = LoggerFactory.getLogger("accessLog");
@@ -10,11 +29,176 @@ public class LoggerFactoryUtil {
     private static Logger infoLog = LoggerFactory.getLogger("infoLog");
     private static Logger errorLog = LoggerFactory.getLogger("errorLog");
 
+    private static final org.apache.log4j.Logger accessLogger = org.apache.log4j.Logger.getLogger("accessLog");
+    private static final org.apache.log4j.Logger bizLogger = org.apache.log4j.Logger.getLogger("bizLog");
+    private static final org.apache.log4j.Logger infoLogger = org.apache.log4j.Logger.getLogger("infoLog");
+    private static final org.apache.log4j.Logger errorLogger = org.apache.log4j.Logger.getLogger("errorLog");
+    private static final org.apache.log4j.Logger accessBinLogger = org.apache.log4j.Logger.getLogger("accessBinLog");
+
+    private static final String FQCN = LoggerFactoryUtil.class.getName();
+
+    private static final LogLevelCache accessLevel = new LogLevelCache(accessLogger);
+    private static final LogLevelCache bizLevel = new LogLevelCache(bizLogger);
+    private static final LogLevelCache infoLevel = new LogLevelCache(infoLogger);
+    private static final LogLevelCache errorLevel = new LogLevelCache(errorLogger);
+    private static final LogLevelCache accessBinLevel = new LogLevelCache(accessBinLogger);
+
+    static final String SAMPLING_CONFIG = "config/log-sampling.properties";
+
+    static final String SAMPLER_MBEAN_NAME = "default";
+
+    private static volatile LogSampler sampler = loadSampler();
+
+    private static boolean samplerMBeanRegistered;
+
+    private static volatile AsyncLogDispatcher asyncDispatcher;
+
+    /**
+     * JVM退出时停止异步输出，web应用停止时由{@link #disableAsync()}移除，避免钩子持有web应用的类加载器
+     */
+    private static Thread shutdownHook;
+
+    static {
+        if (Boolean.getBoolean("log.async")) {
+            enableAsync(Integer.getInteger("log.async.bufferSize", 8192),
+                    LogOverflowPolicy.valueOf(System.getProperty("log.async.overflowPolicy", LogOverflowPolicy.BLOCK.name())),
+                    Integer.getInteger("log.async.sampleRate", 10));
+        }
+    }
+
+    /**
+     * 开启异步输出，已开启时先停止原来的
+     */
+    public static synchronized void enableAsync(int bufferSize, LogOverflowPolicy overflowPolicy, int sampleRate) {
+        stopAsyncDispatcher();
+        asyncDispatcher = new AsyncLogDispatcher(bufferSize, overflowPolicy, sampleRate);
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    stopAsyncDispatcher();
+                }
+            }, "async-log-shutdown");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+    }
+
+    /**
+     * 停止异步输出，队列中剩余的日志输出完后恢复同步输出，并移除JVM退出时的钩子；
+     * web应用停止时调用（见MetricsContextListener），钩子只在没有调用时兜底
+     */
+    public static synchronized void disableAsync() {
+        stopAsyncDispatcher();
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // JVM正在退出，钩子会自己执行
+            }
+            shutdownHook = null;
+        }
+    }
+
+    private static synchronized void stopAsyncDispatcher() {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            asyncDispatcher = null;
+            dispatcher.stop(5000L);
+        }
+    }
+
+    private static LogSampler loadSampler() {
+        InputStream in = LoggerFactoryUtil.class.getClassLoader().getResourceAsStream(SAMPLING_CONFIG);
+        if (in == null) {
+            return LogSampler.unlimited();
+        }
+        try {
+            return LogSampler.load(in);
+        } catch (IOException | IllegalArgumentException e) {
+            LogLog.error("Failed to load " + SAMPLING_CONFIG + ", sampling disabled.", e);
+            return LogSampler.unlimited();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    public static LogSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * 替换限流配置，已注册MBean时改为注册新的sampler
+     */
+    public static synchronized void setSampler(LogSampler logSampler) {
+        LogSampler old = sampler;
+        sampler = logSampler == null ? LogSampler.unlimited() : logSampler;
+        if (samplerMBeanRegistered) {
+            old.unregisterMBean();
+            sampler.registerMBean(SAMPLER_MBEAN_NAME);
+        }
+    }
+
+    /**
+     * 把当前的{@link LogSampler}注册为JMX MBean，web应用启动时调用
+     */
+    public static synchronized void registerSamplerMBean() {
+        samplerMBeanRegistered = true;
+        sampler.registerMBean(SAMPLER_MBEAN_NAME);
+    }
+
+    /**
+     * 注销{@link #registerSamplerMBean()}注册的MBean，web应用停止时调用
+     */
+    public static synchronized void unregisterSamplerMBean() {
+        samplerMBeanRegistered = false;
+        sampler.unregisterMBean();
+    }
+
+    /**
+     * 按请求路径采样，返回该请求的access日志是否输出
+     */
+    public static boolean sampleUrl(String path) {
+        return sampler.sampleUrl(path);
+    }
+
+    /**
+     * 耗时是否超过慢请求阈值，慢请求的日志不参与采样和限流
+     */
+    public static boolean isSlowRequest(long elapsedMillis) {
+        return sampler.isSlow(elapsedMillis);
+    }
+
+    private static boolean permit(LogSampler.Channel channel, LogLevel logLevel) {
+        return logLevel == LogLevel.ERROR || channel.tryAcquire();
+    }
+
+    /**
+     * 异步输出的分发器，未开启时返回null
+     */
+    public static AsyncLogDispatcher getAsyncDispatcher() {
+        return asyncDispatcher;
+    }
+
     public static void access(String message) {
         access(LogLevel.DEBUG, message);
     }
 
     public static void access(LogLevel logLevel, String message) {
+        if (isAccessEnabled(logLevel) && permit(sampler.getAccess(), logLevel)) {
+            writeAccess(logLevel, message);
+        }
+    }
+
+    private static void writeAccess(LogLevel logLevel, String message) {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(accessLogger, toLevel(logLevel), message, null);
+            return;
+        }
         if (logLevel == null) {
             accessLog.info(message);
         }
@@ -29,11 +213,68 @@ public class LoggerFactoryUtil {
         }
     }
 
+    public static void access(String format, Object... args) {
+        access(LogLevel.DEBUG, format, args);
+    }
+
+    public static void access(LogLevel logLevel, String format, Object... args) {
+        if (isAccessEnabled(logLevel) && permit(sampler.getAccess(), logLevel)) {
+            writeAccess(logLevel, format(format, args));
+        }
+    }
+
+    public static void access(Supplier<String> message) {
+        access(LogLevel.DEBUG, message);
+    }
+
+    public static void access(LogLevel logLevel, Supplier<String> message) {
+        if (isAccessEnabled(logLevel) && permit(sampler.getAccess(), logLevel)) {
+            writeAccess(logLevel, message.get());
+        }
+    }
+
+    /**
+     * 不受限流影响的access日志，用于慢请求等必须输出的场景
+     */
+    public static void accessAlways(String format, Object... args) {
+        if (isAccessEnabled(LogLevel.DEBUG)) {
+            writeAccess(LogLevel.DEBUG, format(format, args));
+        }
+    }
+
+    public static void accessAlways(Supplier<String> message) {
+        if (isAccessEnabled(LogLevel.DEBUG)) {
+            writeAccess(LogLevel.DEBUG, message.get());
+        }
+    }
+
+    public static boolean isAccessEnabled(LogLevel logLevel) {
+        return accessLevel.isEnabled(toLevel(logLevel));
+    }
+
+    public static boolean isAccessRecordEnabled() {
+        return accessBinLevel.isEnabled(Level.INFO);
+    }
+
+    /**
+     * 输出结构化的access日志，accessBinLog未开启时忽略
+     */
+    public static void accessRecord(AccessLogRecord record) {
+        if (isAccessRecordEnabled()) {
+            accessBinLogger.log(FQCN, Level.INFO, record, null);
+        }
+    }
+
     public static void biz(String message) {
         biz(LogLevel.DEBUG, message);
     }
 
     public static void biz(LogLevel logLevel, String message) {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(bizLogger, toLevel(logLevel), message, null);
+            return;
+        }
         if (logLevel == null) {
             bizLog.info(message);
         }
@@ -48,11 +289,46 @@ public class LoggerFactoryUtil {
         }
     }
 
+    public static void biz(String format, Object... args) {
+        biz(LogLevel.DEBUG, format, args);
+    }
+
+    public static void biz(LogLevel logLevel, String format, Object... args) {
+        if (isBizEnabled(logLevel)) {
+            biz(logLevel, format(format, args));
+        }
+    }
+
+    public static void biz(Supplier<String> message) {
+        biz(LogLevel.DEBUG, message);
+    }
+
+    public static void biz(LogLevel logLevel, Supplier<String> message) {
+        if (isBizEnabled(logLevel)) {
+            biz(logLevel, message.get());
+        }
+    }
+
+    public static boolean isBizEnabled(LogLevel logLevel) {
+        return bizLevel.isEnabled(toLevel(logLevel));
+    }
+
     public static void info(String message) {
         info(LogLevel.DEBUG, message);
     }
 
     public static void info(LogLevel logLevel, String message) {
+        if (isInfoEnabled(logLevel) && permit(sampler.getInfo(), logLevel)) {
+            writeInfo(logLevel, message);
+        }
+    }
+
+    private static void writeInfo(LogLevel logLevel, String message) {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(infoLogger, toLevel(logLevel), message, null);
+            return;
+        }
         if (logLevel == null) {
             infoLog.info(message);
         }
@@ -67,11 +343,85 @@ public class LoggerFactoryUtil {
         }
     }
 
+    public static void info(String format, Object... args) {
+        info(LogLevel.DEBUG, format, args);
+    }
+
+    public static void info(LogLevel logLevel, String format, Object... args) {
+        if (isInfoEnabled(logLevel) && permit(sampler.getInfo(), logLevel)) {
+            writeInfo(logLevel, format(format, args));
+        }
+    }
+
+    public static void info(Supplier<String> message) {
+        info(LogLevel.DEBUG, message);
+    }
+
+    public static void info(LogLevel logLevel, Supplier<String> message) {
+        if (isInfoEnabled(logLevel) && permit(sampler.getInfo(), logLevel)) {
+            writeInfo(logLevel, message.get());
+        }
+    }
+
+    /**
+     * 不受限流影响的info日志
+     */
+    public static void infoAlways(String format, Object... args) {
+        if (isInfoEnabled(LogLevel.DEBUG)) {
+            writeInfo(LogLevel.DEBUG, format(format, args));
+        }
+    }
+
+    public static boolean isInfoEnabled(LogLevel logLevel) {
+        return infoLevel.isEnabled(toLevel(logLevel));
+    }
+
     public static void error(String message, Throwable t) {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.dispatch(errorLogger, Level.ERROR, message, t);
+            return;
+        }
         errorLog.error(message, t);
     }
-    
+
     public static void error(String message) {
-        errorLog.error(message);
+        error(message, (Throwable) null);
+    }
+
+    /**
+     * 最后一个参数是Throwable且没有对应的占位符时，作为异常输出
+     */
+    public static void error(String format, Object... args) {
+        if (errorLevel.isEnabled(Level.ERROR)) {
+            FormattingTuple tuple = MessageFormatter.arrayFormat(format, args);
+            error(tuple.getMessage(), tuple.getThrowable());
+        }
+    }
+
+    public static void error(Supplier<String> message, Throwable t) {
+        if (errorLevel.isEnabled(Level.ERROR)) {
+            error(message.get(), t);
+        }
+    }
+
+    /**
+     * 立即重新读取各logger的级别，用于代码中直接修改了log4j级别的情况
+     */
+    public static void refreshLevels() {
+        LogLevelCache.invalidate();
+    }
+
+    private static String format(String format, Object[] args) {
+        return MessageFormatter.arrayFormat(format, args).getMessage();
+    }
+
+    private static Level toLevel(LogLevel logLevel) {
+        if (logLevel == LogLevel.DEBUG) {
+            return Level.DEBUG;
+        } else if (logLevel == LogLevel.ERROR) {
+            return Level.ERROR;
+        }
+        return Level.INFO;
     }
 }
@@ -0,0 +1,187 @@
+package cn.roc.dm.common.log;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 把字符编码后直接写入文件映射区域的Writer，写入只是内存拷贝，不产生系统调用
+ * <p>映射区域按regionSize分块向后扩展，文件在映射时即被预分配到区域末尾；
+ * {@link #close()}时把文件截断到实际写入的长度。进程异常退出时文件末尾可能留下预分配的0字节，
+ * 追加打开时用{@link #contentLength(FileChannel)}跳过。
+ * <p>非线程安全，由appender的锁保证串行写入。
+ */
+public class MappedFileWriter extends Writer {
+
+    private static final int SCAN_BLOCK_SIZE = 8 * 1024;
+
+    private final FileChannel channel;
+
+    private final int regionSize;
+
+    private final CharsetEncoder encoder;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * 当前映射区域在文件中的起始位置
+     */
+    private long regionStart;
+
+    /**
+     * 上次写入末尾未配对的高位代理项
+     */
+    private char pendingHighSurrogate;
+
+    private boolean closed;
+
+    /**
+     * @param channel 以读写方式打开的文件
+     * @param position 开始写入的位置
+     * @param regionSize 每次映射的字节数
+     * @param charset 编码，为null时使用平台默认编码
+     */
+    public MappedFileWriter(FileChannel channel, long position, int regionSize, Charset charset) throws IOException {
+        this.channel = channel;
+        this.regionSize = regionSize;
+        this.encoder = (charset == null ? Charset.defaultCharset() : charset).newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.regionStart = position;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        encode(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        encode(CharBuffer.wrap(str, off, off + len));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        encode(CharBuffer.wrap(new char[] {(char) c}));
+    }
+
+    private void encode(CharBuffer in) throws IOException {
+        ensureOpen();
+        if (!in.hasRemaining()) {
+            return;
+        }
+        if (pendingHighSurrogate != 0) {
+            CharBuffer pair = CharBuffer.wrap(new char[] {pendingHighSurrogate, in.get()});
+            pendingHighSurrogate = 0;
+            encodeFully(pair);
+        }
+        encodeFully(in);
+    }
+
+    private void encodeFully(CharBuffer in) throws IOException {
+        while (true) {
+            CoderResult result = encoder.encode(in, buffer, false);
+            if (result.isOverflow()) {
+                remap();
+            } else if (result.isUnderflow()) {
+                if (in.hasRemaining()) {
+                    // 只剩一个高位代理项，等下次写入再编码
+                    pendingHighSurrogate = in.get();
+                }
+                return;
+            } else {
+                result.throwException();
+            }
+        }
+    }
+
+    private void remap() throws IOException {
+        regionStart += buffer.position();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, regionSize);
+    }
+
+    /**
+     * 已写入内容的末尾在文件中的位置
+     */
+    public long position() {
+        return regionStart + (buffer == null ? 0 : buffer.position());
+    }
+
+    /**
+     * 映射区域的内容由操作系统写回磁盘，这里不做任何操作
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+    }
+
+    /**
+     * 把当前映射区域和之前写入的内容写回磁盘
+     */
+    public void force() throws IOException {
+        ensureOpen();
+        buffer.force();
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (pendingHighSurrogate != 0) {
+                encodeFully(CharBuffer.wrap(new char[] {pendingHighSurrogate}));
+                pendingHighSurrogate = 0;
+            }
+            long end = position();
+            buffer = null;
+            channel.truncate(end);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Writer closed");
+        }
+    }
+
+    /**
+     * 文件去掉末尾预分配的0字节后的长度
+     */
+    public static long contentLength(FileChannel channel) throws IOException {
+        long end = channel.size();
+        ByteBuffer block = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+        while (end > 0) {
+            long start = Math.max(0, end - SCAN_BLOCK_SIZE);
+            block.clear();
+            block.limit((int) (end - start));
+            int read = 0;
+            while (block.hasRemaining()) {
+                int n = channel.read(block, start + read);
+                if (n < 0) {
+                    break;
+                }
+                read += n;
+            }
+            for (int i = read - 1; i >= 0; i--) {
+                if (block.get(i) != 0) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,298 @@
+package cn.roc.dm.common.log;
+
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+
+/**
+ * 在后台线程把接口返回值序列化成JSON并输出到access日志，请求线程只负责入队
+ * <ul>
+ * <li>序列化结果最多保留maxLength个字符，超出时立即停止序列化并以"...(truncated)"结尾，
+ * 不会把大对象完整序列化后再截断</li>
+ * <li>byte[]、流、文件、ModelAndView等类型不序列化，只输出类型名，可用系统属性log.result.skipTypes追加（逗号分隔的类名）</li>
+ * <li>队列满时丢弃，不阻塞请求线程，丢弃数见{@link #getDroppedCount()}</li>
+ * <li>web应用停止时调用{@link #stop(long)}停止后台线程，之后提交的返回值在调用线程中同步输出</li>
+ * </ul>
+ * 系统属性log.result.maxLength、log.result.queueSize分别配置最大长度（默认4096）和队列长度（默认1024）。
+ * <p>返回值在入队后才被读取，调用方返回后不应再修改该对象。
+ * <p>丢弃、截断数通过JMX（{@link #registerMBean()}）和/admin/result-log.json查看。
+ */
+public class ResultLogSerializer implements ResultLogSerializerMXBean {
+
+    static final String TRUNCATED = "...(truncated)";
+
+    private static final String[] DEFAULT_SKIP_TYPES = {
+            "java.io.InputStream", "java.io.Reader", "java.io.File",
+            "org.springframework.core.io.Resource", "org.springframework.web.servlet.ModelAndView",
+            "javax.servlet.ServletRequest", "javax.servlet.ServletResponse"};
+
+    private static final ResultLogSerializer INSTANCE = new ResultLogSerializer(
+            Integer.getInteger("log.result.queueSize", 1024), Integer.getInteger("log.result.maxLength", 4096),
+            System.getProperty("log.result.skipTypes", ""));
+
+    private final BlockingQueue<Entry> queue;
+
+    private final int maxLength;
+
+    private final List<Class<?>> skipTypes = new ArrayList<Class<?>>();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder truncated = new LongAdder();
+
+    private final Thread worker;
+
+    private volatile boolean stopped;
+
+    private ObjectName objectName;
+
+    ResultLogSerializer(int queueSize, int maxLength, String extraSkipTypes) {
+        this.queue = new ArrayBlockingQueue<Entry>(Math.max(1, queueSize));
+        this.maxLength = Math.max(16, maxLength);
+        for (String name : DEFAULT_SKIP_TYPES) {
+            addSkipType(name);
+        }
+        for (String name : extraSkipTypes.split(",")) {
+            if (name.trim().length() > 0) {
+                addSkipType(name.trim());
+            }
+        }
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "result-log-serializer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public static ResultLogSerializer getInstance() {
+        return INSTANCE;
+    }
+
+    private void addSkipType(String name) {
+        try {
+            skipTypes.add(Class.forName(name, false, ResultLogSerializer.class.getClassLoader()));
+        } catch (ClassNotFoundException | LinkageError e) {
+            // 类不存在时忽略
+        }
+    }
+
+    /**
+     * 提交一个返回值，日志格式为"description result of returns : json"；队列满时直接丢弃
+     */
+    public void submit(String description, Object result) {
+        Entry entry = new Entry(description, result);
+        if (stopped) {
+            write(entry);
+            return;
+        }
+        if (!queue.offer(entry)) {
+            dropped.increment();
+        } else if (stopped) {
+            // 入队时正在停止，后台线程可能已经退出
+            drainQueue();
+        }
+    }
+
+    /**
+     * 停止后台线程，最多等待timeoutMillis，队列中剩余的返回值在调用线程中输出
+     */
+    public void stop(long timeoutMillis) {
+        stopped = true;
+        worker.interrupt();
+        try {
+            worker.join(timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainQueue();
+    }
+
+    private void drain() {
+        // 中断标志可能在输出日志时被清除，同时检查stopped
+        while (!stopped) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            write(entry);
+        }
+    }
+
+    private void drainQueue() {
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            write(entry);
+        }
+    }
+
+    private void write(Entry entry) {
+        try {
+            LoggerFactoryUtil.access(entry.description + " result of returns : " + serialize(entry.result));
+        } catch (Exception e) {
+            LoggerFactoryUtil.error("Failed to serialize result of " + entry.description, e);
+        }
+    }
+
+    String serialize(Object result) {
+        if (result == null) {
+            return "null";
+        }
+        if (result instanceof String) {
+            String text = (String) result;
+            if (text.length() <= maxLength) {
+                return text;
+            }
+            truncated.increment();
+            return text.substring(0, maxLength) + TRUNCATED;
+        }
+        if (result instanceof byte[]) {
+            return "[byte[" + ((byte[]) result).length + "]]";
+        }
+        for (Class<?> type : skipTypes) {
+            if (type.isInstance(result)) {
+                return "[" + result.getClass().getName() + "]";
+            }
+        }
+        BoundedWriter writer = new BoundedWriter(maxLength);
+        SerializeWriter out = new SerializeWriter(writer, Math.min(maxLength, 1024));
+        try {
+            new JSONSerializer(out).write(result);
+            out.flush();
+        } catch (RuntimeException e) {
+            // fastjson会把异常包装成JSONException
+            if (!writer.exceeded) {
+                throw e;
+            }
+            truncated.increment();
+            return writer.toString() + TRUNCATED;
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getTruncatedCount() {
+        return truncated.sum();
+    }
+
+    @Override
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * 注册为JMX MBean，同名MBean已存在时不注册
+     */
+    public synchronized void registerMBean() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName on = new ObjectName(ResultLogSerializer.class.getPackage().getName()
+                    + ":type=ResultLogSerializer");
+            if (!server.isRegistered(on)) {
+                server.registerMBean(this, on);
+                objectName = on;
+            }
+        } catch (JMException e) {
+            LoggerFactoryUtil.error("Failed to register result log MBean", e);
+        }
+    }
+
+    /**
+     * 注销{@link #registerMBean()}注册的MBean，web应用停止时调用
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            LoggerFactoryUtil.error("Failed to unregister result log MBean " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    private static final class Entry {
+
+        final String description;
+
+        final Object result;
+
+        Entry(String description, Object result) {
+            this.description = description;
+            this.result = result;
+        }
+    }
+
+    /**
+     * 超过长度时抛出{@link LengthExceededException}，中断序列化
+     */
+    private static final class BoundedWriter extends Writer {
+
+        private final StringBuilder buf = new StringBuilder();
+
+        private final int maxLength;
+
+        boolean exceeded;
+
+        BoundedWriter(int maxLength) {
+            this.maxLength = maxLength;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int room = maxLength - buf.length();
+            if (len > room) {
+                buf.append(cbuf, off, room);
+                exceeded = true;
+                throw new LengthExceededException();
+            }
+            buf.append(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return buf.toString();
+        }
+    }
+
+    private static final class LengthExceededException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        LengthExceededException() {
+            super(null, null, false, false);
+        }
+    }
+}
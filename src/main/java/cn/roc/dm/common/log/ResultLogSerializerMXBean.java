@@ -0,0 +1,22 @@
+package cn.roc.dm.common.log;
+
+/**
+ * {@link ResultLogSerializer}的JMX接口，ObjectName为cn.roc.dm.common.log:type=ResultLogSerializer
+ */
+public interface ResultLogSerializerMXBean {
+
+    /**
+     * 队列满时丢弃的返回值个数
+     */
+    long getDroppedCount();
+
+    /**
+     * 超过最大长度被截断的返回值个数
+     */
+    long getTruncatedCount();
+
+    /**
+     * 队列中等待序列化的个数
+     */
+    int getPendingCount();
+}
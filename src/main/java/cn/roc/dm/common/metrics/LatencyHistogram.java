@@ -0,0 +1,168 @@
+package cn.roc.dm.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 耗时直方图，默认按微秒记录（也可记录字节数等其他非负整数），分桶方式与HdrHistogram相同（对数-线性）：
+ * 64以内每个值一个桶，之后每个2的幂区间再等分成32个桶，相对误差不超过1/32
+ * <p>记录时按线程分到不同的条带，每个条带是一个{@link AtomicLongArray}，不加锁；
+ * 读取快照时合并所有条带，快照与并发记录之间不保证原子性。
+ * <p>另外记录出错次数和正在执行的调用数（{@link #enter()}、{@link #exit(long, boolean)}成对调用）。
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * 可记录的最大值为2^MAX_VALUE_BITS-1（按微秒约19小时），更大的值计入最后一个桶
+     */
+    static final int MAX_VALUE_BITS = 36;
+
+    static final int BUCKET_COUNT = 2 * SUB_BUCKET_COUNT + (MAX_VALUE_BITS - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+    private static final int SUM = BUCKET_COUNT;
+
+    private static final int MAX = BUCKET_COUNT + 1;
+
+    private static final int STRIPE_LENGTH = BUCKET_COUNT + 2;
+
+    private static final int STRIPES = stripeCount();
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder inFlight = new LongAdder();
+
+    private volatile long resetMillis = System.currentTimeMillis();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
+    }
+
+    private static int stripeCount() {
+        int cpus = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        return Integer.highestOneBit(Math.max(1, cpus - 1) << 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) Math.max(0L, value);
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        if (msb >= MAX_VALUE_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = msb - SUB_BUCKET_BITS;
+        return 2 * SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * 桶内的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - 2 * SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT + 1;
+        long top = SUB_BUCKET_COUNT + (index - 2 * SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * 调用开始，正在执行的调用数加1
+     */
+    public void enter() {
+        inFlight.increment();
+    }
+
+    /**
+     * 调用结束，记录耗时，正在执行的调用数减1
+     */
+    public void exit(long nanos, boolean error) {
+        inFlight.decrement();
+        recordNanos(nanos);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    public void recordError() {
+        errors.increment();
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000L);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.incrementAndGet(bucketIndex(value));
+        stripe.addAndGet(SUM, value);
+        long max;
+        while (value > (max = stripe.get(MAX))) {
+            if (stripe.compareAndSet(MAX, max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 清空已记录的数据，与并发记录之间不保证原子性
+     */
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < STRIPE_LENGTH; i++) {
+                stripe.set(i, 0L);
+            }
+        }
+        errors.reset();
+        resetMillis = System.currentTimeMillis();
+    }
+
+    public LatencySnapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        long sum = 0;
+        long max = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                long count = stripe.get(i);
+                counts[i] += count;
+                total += count;
+            }
+            sum += stripe.get(SUM);
+            max = Math.max(max, stripe.get(MAX));
+        }
+        return new LatencySnapshot(total, errors.sum(), inFlight.sum(), total == 0 ? 0D : (double) sum / total,
+                percentile(counts, total, 0.5D, max), percentile(counts, total, 0.9D, max),
+                percentile(counts, total, 0.99D, max), percentile(counts, total, 0.999D, max),
+                max, resetMillis);
+    }
+
+    /**
+     * 返回第ceil(p*total)个值所在桶的最大值，不超过实际记录的最大值
+     */
+    static long percentile(long[] counts, long total, double p, long max) {
+        if (total == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long) Math.ceil(p * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,169 @@
+package cn.roc.dm.common.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+
+/**
+ * 按key（接口、方法等）分组的{@link LatencyHistogram}，同名registry全局唯一，创建时注册为JMX MBean
+ * <p>默认记录耗时，单位为微秒；也可用{@link #get(String, String)}创建记录其他数值（如响应字节数）的registry。
+ * <p>key的数量超过{@link #MAX_KEYS}后，新的key统一计入{@link #OVERFLOW_KEY}，避免无限增长。
+ * <p>web应用停止时由{@link MetricsContextListener}调用{@link #unregisterAll()}注销MBean。
+ */
+public class LatencyRegistry implements LatencyRegistryMXBean {
+
+    public static final int MAX_KEYS = 1000;
+
+    public static final String OVERFLOW_KEY = "other";
+
+    public static final String UNIT_MICROS = "us";
+
+    public static final String UNIT_BYTES = "bytes";
+
+    private static final ConcurrentMap<String, LatencyRegistry> REGISTRIES = new ConcurrentHashMap<String, LatencyRegistry>();
+
+    private final String name;
+
+    private final String unit;
+
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /**
+     * 由本实例注册的MBean名，未注册（同名MBean已存在或注册失败）时为null
+     */
+    private volatile ObjectName objectName;
+
+    private LatencyRegistry(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+
+    /**
+     * 取指定名字的耗时registry，不存在时创建并注册MBean
+     */
+    public static LatencyRegistry get(String name) {
+        return get(name, UNIT_MICROS);
+    }
+
+    /**
+     * 取指定名字的registry，不存在时按unit创建并注册MBean；已存在时unit以第一次创建时为准
+     */
+    public static LatencyRegistry get(String name, String unit) {
+        LatencyRegistry registry = REGISTRIES.get(name);
+        if (registry == null) {
+            LatencyRegistry created = new LatencyRegistry(name, unit);
+            registry = REGISTRIES.putIfAbsent(name, created);
+            if (registry == null) {
+                registry = created;
+                registerMBean(created);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * 所有registry，按名字排序
+     */
+    public static Map<String, LatencyRegistry> all() {
+        return new TreeMap<String, LatencyRegistry>(REGISTRIES);
+    }
+
+    private static void registerMBean(LatencyRegistry registry) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(LatencyRegistry.class.getPackage().getName()
+                    + ":type=Latency,name=" + ObjectName.quote(registry.name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(registry, objectName);
+                registry.objectName = objectName;
+            }
+        } catch (JMException e) {
+            LoggerFactoryUtil.error("Failed to register latency MBean " + registry.name, e);
+        }
+    }
+
+    /**
+     * 注销本类注册的所有MBean，web应用停止时调用，避免MBeanServer继续持有旧的类加载器；
+     * 之后仍可继续记录，只是不再通过JMX暴露
+     */
+    public static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (LatencyRegistry registry : REGISTRIES.values()) {
+            ObjectName objectName = registry.objectName;
+            if (objectName == null) {
+                continue;
+            }
+            registry.objectName = null;
+            try {
+                server.unregisterMBean(objectName);
+            } catch (JMException e) {
+                LoggerFactoryUtil.error("Failed to unregister latency MBean " + registry.name, e);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void recordNanos(String key, long nanos) {
+        histogram(key).recordNanos(nanos);
+    }
+
+    public void record(String key, long value) {
+        histogram(key).record(value);
+    }
+
+    public LatencyHistogram histogram(String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            if (histograms.size() >= MAX_KEYS) {
+                key = OVERFLOW_KEY;
+                histogram = histograms.get(key);
+                if (histogram != null) {
+                    return histogram;
+                }
+            }
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public int getKeyCount() {
+        return histograms.size();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getSnapshots() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<String, LatencySnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package cn.roc.dm.common.metrics;
+
+import java.util.Map;
+
+/**
+ * {@link LatencyRegistry}的JMX接口，ObjectName为cn.roc.dm.common.metrics:type=Latency,name=&lt;registry名&gt;
+ */
+public interface LatencyRegistryMXBean {
+
+    /**
+     * 记录值的单位，耗时为us
+     */
+    String getUnit();
+
+    int getKeyCount();
+
+    /**
+     * 各key的耗时快照
+     */
+    Map<String, LatencySnapshot> getSnapshots();
+
+    /**
+     * 清空所有key的数据
+     */
+    void reset();
+}
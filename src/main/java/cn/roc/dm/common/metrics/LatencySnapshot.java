@@ -0,0 +1,99 @@
+package cn.roc.dm.common.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * {@link LatencyHistogram}的快照，单位见{@link LatencyRegistry#getUnit()}，百分位为所在桶的上界
+ */
+public class LatencySnapshot {
+
+    private final long count;
+
+    private final long errors;
+
+    private final long inFlight;
+
+    private final double mean;
+
+    private final long p50;
+
+    private final long p90;
+
+    private final long p99;
+
+    private final long p999;
+
+    private final long max;
+
+    private final long sinceMillis;
+
+    @ConstructorProperties({"count", "errors", "inFlight", "mean", "p50", "p90", "p99", "p999", "max", "sinceMillis"})
+    public LatencySnapshot(long count, long errors, long inFlight, double mean, long p50, long p90, long p99,
+                           long p999, long max, long sinceMillis) {
+        this.count = count;
+        this.errors = errors;
+        this.inFlight = inFlight;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+        this.sinceMillis = sinceMillis;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 出错（抛出异常）的次数，已计入count
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * 当前正在执行的调用数，只有通过{@link LatencyHistogram#enter()}记录的才有值
+     */
+    public long getInFlight() {
+        return inFlight;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * 开始统计（或上次清空）的时间
+     */
+    public long getSinceMillis() {
+        return sinceMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", errors=" + errors + ", inFlight=" + inFlight + ", mean=" + (long) mean + ", p50=" + p50 + ", p90=" + p90
+                + ", p99=" + p99 + ", p999=" + p999 + ", max=" + max;
+    }
+}
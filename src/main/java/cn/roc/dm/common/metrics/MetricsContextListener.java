@@ -0,0 +1,31 @@
+package cn.roc.dm.common.metrics;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+import cn.roc.dm.common.log.ResultLogSerializer;
+
+/**
+ * web应用启动时注册日志统计的MBean，停止时释放统计和日志相关的资源（后台线程、MBean等），避免重新部署后旧的线程和类加载器无法回收
+ * <p>在web.xml中配置在Log4jConfigListener之后，使其先于log4j关闭执行
+ */
+public class MetricsContextListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        LoggerFactoryUtil.registerSamplerMBean();
+        ResultLogSerializer.getInstance().registerMBean();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        SlowRequestDetector.shutdown();
+        LatencyRegistry.unregisterAll();
+        LoggerFactoryUtil.unregisterSamplerMBean();
+        ResultLogSerializer.getInstance().unregisterMBean();
+        ResultLogSerializer.getInstance().stop(5000L);
+        // 最后停止异步日志，前面输出的日志先写完
+        LoggerFactoryUtil.disableAsync();
+    }
+}
@@ -0,0 +1,200 @@
+package cn.roc.dm.common.metrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.log4j.helpers.OptionConverter;
+
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+
+/**
+ * 慢请求判断和栈采样，配置见config/slow-request.properties
+ * <ul>
+ * <li>slow.route.&lt;路径前缀&gt;=毫秒：按请求路径最长前缀匹配的慢请求阈值</li>
+ * <li>slow.default=毫秒：默认阈值，不配置时使用log-sampling.properties的log.sample.slowMillis</li>
+ * <li>slow.sampling.enabled：是否开启栈采样，开启后请求超过阈值时按slow.sampling.intervalMillis采样请求线程的栈，
+ * 汇总成collapsed stack格式写入slow.sampling.output，其他参数见{@link StackSampler}</li>
+ * </ul>
+ */
+public class SlowRequestDetector {
+
+    static final String CONFIG = "config/slow-request.properties";
+
+    static final String KEY_PREFIX = "slow.";
+    static final String ROUTE_KEY = "route.";
+    static final String DEFAULT_KEY = "default";
+    static final String SAMPLING_KEY = "sampling.";
+
+    private static volatile SlowRequestDetector instance;
+
+    /**
+     * 小于0表示使用{@link LoggerFactoryUtil#isSlowRequest(long)}
+     */
+    private final long defaultMillis;
+
+    /**
+     * 按前缀长度从长到短排列
+     */
+    private final List<Route> routes;
+
+    private final StackSampler sampler;
+
+    private SlowRequestDetector(long defaultMillis, List<Route> routes, StackSampler sampler) {
+        this.defaultMillis = defaultMillis;
+        this.routes = routes;
+        this.sampler = sampler;
+    }
+
+    /**
+     * 取全局实例，第一次调用时从classpath加载配置
+     */
+    public static SlowRequestDetector getInstance() {
+        SlowRequestDetector detector = instance;
+        if (detector == null) {
+            synchronized (SlowRequestDetector.class) {
+                detector = instance;
+                if (detector == null) {
+                    detector = loadDefault();
+                    instance = detector;
+                }
+            }
+        }
+        return detector;
+    }
+
+    private static SlowRequestDetector loadDefault() {
+        InputStream in = SlowRequestDetector.class.getClassLoader().getResourceAsStream(CONFIG);
+        if (in == null) {
+            return compile(new Properties());
+        }
+        try {
+            Properties properties = new Properties();
+            properties.load(in);
+            return compile(properties);
+        } catch (IOException | IllegalArgumentException e) {
+            LoggerFactoryUtil.error("Failed to load " + CONFIG + ", per-route thresholds disabled.", e);
+            return compile(new Properties());
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    public static SlowRequestDetector compile(Properties properties) {
+        long defaultMillis = -1L;
+        List<Route> routes = new ArrayList<Route>();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            if (key.equals(KEY_PREFIX + DEFAULT_KEY)) {
+                defaultMillis = Long.parseLong(value);
+            } else if (key.startsWith(KEY_PREFIX + ROUTE_KEY)) {
+                routes.add(new Route(key.substring((KEY_PREFIX + ROUTE_KEY).length()), Long.parseLong(value)));
+            }
+        }
+        Collections.sort(routes, new Comparator<Route>() {
+            @Override
+            public int compare(Route r1, Route r2) {
+                return r2.prefix.length() - r1.prefix.length();
+            }
+        });
+        StackSampler sampler = null;
+        String prefix = KEY_PREFIX + SAMPLING_KEY;
+        if (OptionConverter.toBoolean(properties.getProperty(prefix + "enabled"), false)) {
+            sampler = new StackSampler(
+                    Long.parseLong(properties.getProperty(prefix + "intervalMillis", "20").trim()),
+                    Integer.parseInt(properties.getProperty(prefix + "maxDepth", "256").trim()),
+                    Integer.parseInt(properties.getProperty(prefix + "maxStacks", "5000").trim()),
+                    OptionConverter.substVars(properties.getProperty(prefix + "output", "slow-stacks.collapsed").trim(),
+                            properties),
+                    Long.parseLong(properties.getProperty(prefix + "flushSeconds", "60").trim()));
+        }
+        return new SlowRequestDetector(defaultMillis, routes, sampler);
+    }
+
+    /**
+     * 请求路径对应的阈值（毫秒），小于0表示使用默认阈值
+     */
+    long budgetMillis(String path) {
+        if (path != null) {
+            for (Route route : routes) {
+                if (path.startsWith(route.prefix)) {
+                    return route.millis;
+                }
+            }
+        }
+        return defaultMillis;
+    }
+
+    public boolean isSlow(String path, long elapsedMillis) {
+        long budget = budgetMillis(path);
+        return budget < 0 ? LoggerFactoryUtil.isSlowRequest(elapsedMillis) : elapsedMillis > budget;
+    }
+
+    /**
+     * 请求开始，栈采样开启时登记当前线程，返回值需传给{@link #end(Object)}；未开启时返回null
+     * @param path 请求路径，用于匹配阈值
+     * @param endpoint 接口名，作为采样栈的根
+     */
+    public Object begin(String path, String endpoint) {
+        if (sampler == null) {
+            return null;
+        }
+        long budget = budgetMillis(path);
+        if (budget < 0) {
+            budget = LoggerFactoryUtil.getSampler().getSlowMillis();
+        }
+        return sampler.begin(endpoint, budget);
+    }
+
+    /**
+     * 请求结束，取消登记
+     */
+    public void end(Object token) {
+        if (sampler != null && token != null) {
+            sampler.end(token);
+        }
+    }
+
+    /**
+     * 停止栈采样线程，之后的请求不再采样
+     */
+    public void stop() {
+        if (sampler != null) {
+            sampler.stop();
+        }
+    }
+
+    /**
+     * 停止全局实例的栈采样线程，web应用停止时由{@link MetricsContextListener}调用
+     */
+    public static void shutdown() {
+        SlowRequestDetector detector = instance;
+        if (detector != null) {
+            detector.stop();
+        }
+    }
+
+    public boolean isSamplingEnabled() {
+        return sampler != null;
+    }
+
+    private static final class Route {
+
+        final String prefix;
+
+        final long millis;
+
+        Route(String prefix, long millis) {
+            this.prefix = prefix;
+            this.millis = millis;
+        }
+    }
+}
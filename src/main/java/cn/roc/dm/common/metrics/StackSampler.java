@@ -0,0 +1,207 @@
+package cn.roc.dm.common.metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+
+/**
+ * 慢请求的栈采样：后台线程每intervalMillis检查一次进行中的请求，超过阈值的采样其线程栈，
+ * 按"接口;最外层帧;...;最内层帧 次数"（collapsed stack格式，可直接交给flamegraph.pl）汇总，
+ * 每flushSeconds把累计结果整体重写到输出文件
+ * <p>每条栈最多保留最内层的maxDepth帧；不同的栈超过maxStacks后，新的栈只按接口计入"接口;[other]"。
+ * 汇总只在采样线程中进行，不加锁。
+ * <p>采样线程需调用{@link #stop()}停止，web应用中由{@link MetricsContextListener}在应用停止时调用。
+ */
+class StackSampler {
+
+    static final String OTHER_FRAME = "[other]";
+
+    private final long intervalNanos;
+
+    private final int maxDepth;
+
+    private final int maxStacks;
+
+    private final File output;
+
+    private final long flushNanos;
+
+    private final Map<Thread, InFlight> inFlight = new ConcurrentHashMap<Thread, InFlight>();
+
+    private final Map<String, long[]> stacks = new HashMap<String, long[]>();
+
+    private final ScheduledExecutorService executor;
+
+    private long lastFlushNanos = System.nanoTime();
+
+    private boolean dirty;
+
+    private volatile boolean stopped;
+
+    StackSampler(long intervalMillis, int maxDepth, int maxStacks, String output, long flushSeconds) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, intervalMillis));
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxStacks = Math.max(1, maxStacks);
+        this.output = new File(output);
+        this.flushNanos = TimeUnit.SECONDS.toNanos(Math.max(1L, flushSeconds));
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "slow-request-sampler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sample();
+                } catch (Throwable e) {
+                    LoggerFactoryUtil.error("Slow request sampling failed", e);
+                }
+            }
+        }, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 登记当前线程，已停止时返回null
+     */
+    Object begin(String endpoint, long budgetMillis) {
+        if (stopped) {
+            return null;
+        }
+        Thread thread = Thread.currentThread();
+        InFlight request = new InFlight(thread, endpoint, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis));
+        inFlight.put(thread, request);
+        return request;
+    }
+
+    void end(Object token) {
+        InFlight request = (InFlight) token;
+        inFlight.remove(request.thread, request);
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        for (InFlight request : inFlight.values()) {
+            if (now - request.deadlineNanos < 0) {
+                continue;
+            }
+            StackTraceElement[] frames = request.thread.getStackTrace();
+            // 取栈期间请求可能已结束
+            if (inFlight.get(request.thread) == request && frames.length > 0) {
+                add(collapse(request.endpoint, frames));
+            }
+        }
+        if (dirty && now - lastFlushNanos >= flushNanos) {
+            flush();
+        }
+    }
+
+    private String collapse(String endpoint, StackTraceElement[] frames) {
+        StringBuilder stack = new StringBuilder(frames.length * 48);
+        stack.append(endpoint.replace(' ', '_').replace(';', ':'));
+        for (int i = Math.min(frames.length, maxDepth) - 1; i >= 0; i--) {
+            StackTraceElement frame = frames[i];
+            stack.append(';').append(frame.getClassName()).append('.').append(frame.getMethodName());
+        }
+        return stack.toString();
+    }
+
+    private void add(String stack) {
+        long[] count = stacks.get(stack);
+        if (count == null) {
+            if (stacks.size() >= maxStacks) {
+                stack = stack.substring(0, stack.indexOf(';')) + ';' + OTHER_FRAME;
+                count = stacks.get(stack);
+            }
+            if (count == null) {
+                count = new long[1];
+                stacks.put(stack, count);
+            }
+        }
+        count[0]++;
+        dirty = true;
+    }
+
+    /**
+     * 先写临时文件再改名，读取方不会看到写了一半的文件
+     */
+    private void flush() {
+        lastFlushNanos = System.nanoTime();
+        dirty = false;
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tmp = new File(output.getPath() + ".tmp");
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, long[]> entry : stacks.entrySet()) {
+                    writer.write(entry.getKey());
+                    writer.write(' ');
+                    writer.write(Long.toString(entry.getValue()[0]));
+                    writer.write('\n');
+                }
+            }
+            Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LoggerFactoryUtil.error("Failed to write " + output, e);
+        }
+    }
+
+    /**
+     * 停止采样线程，把未写出的结果写入输出文件；可重复调用
+     */
+    synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        inFlight.clear();
+        executor.shutdown();
+        boolean terminated = false;
+        try {
+            terminated = executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 采样线程未结束时不在当前线程写文件，避免并发访问汇总结果
+        if (terminated && dirty) {
+            flush();
+        } else if (!terminated) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static final class InFlight {
+
+        final Thread thread;
+
+        final String endpoint;
+
+        final long deadlineNanos;
+
+        InFlight(Thread thread, String endpoint, long deadlineNanos) {
+            this.thread = thread;
+            this.endpoint = endpoint;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+}
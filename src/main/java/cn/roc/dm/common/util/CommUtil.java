@@ -5,7 +5,6 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.regex.Matcher;
@@ -20,8 +19,6 @@ import org.springframework.util.StringUtils;
  */
 public class CommUtil {
 
-	private static final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-
 	/**
 	 * 字符串转换为时间，默认yyyy-MM-dd
 	 * @author Roc Chen
@@ -32,7 +29,7 @@ public class CommUtil {
 	public static Date formatDate(String s) {
 		Date d = null;
 		try {
-			d = dateFormat.parse(s);
+			d = DateFormats.parse(s, DateFormats.SHORT_DATE);
 		} catch (Exception localException) {}
 		return d;
 	}
@@ -47,8 +44,7 @@ public class CommUtil {
 	public static Date formatDate(String s, String format) {
 		Date d = null;
 		try {
-			SimpleDateFormat dFormat = new SimpleDateFormat(format);
-			d = dFormat.parse(s);
+			d = DateFormats.parse(s, format);
 		} catch (Exception localException) {}
 		return d;
 	}
@@ -62,24 +58,21 @@ public class CommUtil {
 		if(v.equals("")) {
 			return "";
 		}
-		SimpleDateFormat df = new SimpleDateFormat(format);
-		return df.format(v);
+		return DateFormats.format(v, format);
 	}
 
 	public static String formatLongDate(Object v) {
 		if((v == null) || (v.equals(""))) {
 			return "";
 		}
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		return df.format(v);
+		return DateFormats.format(v, DateFormats.LONG_DATE);
 	}
 
 	public static String formatShortDate(Object v) {
 		if(v == null) {
 			return null;
 		}
-		SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
-		return df.format(v);
+		return DateFormats.format(v, DateFormats.SHORT_DATE);
 	}
 
 	
@@ -260,19 +253,30 @@ public class CommUtil {
 		return IP;
 	}
 
+	/**
+	 * 是否为IPv4地址：4段1~3位数字，每段小于255；逐个字符扫描，不用正则
+	 */
 	public static boolean isIp(String IP) {
-		boolean b = false;
 		IP = trimSpaces(IP);
-		if(IP.matches("\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}")) {
-			String[] s = IP.split("\\.");
-			if((Integer.parseInt(s[0]) < 255)
-				&& (Integer.parseInt(s[1]) < 255)
-				&& (Integer.parseInt(s[2]) < 255)
-				&& (Integer.parseInt(s[3]) < 255)) {
-				b = true;
+		int dots = 0;
+		int digits = 0;
+		int value = 0;
+		for (int i = 0; i < IP.length(); i++) {
+			char c = IP.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (++digits > 3) {
+					return false;
+				}
+				value = value * 10 + (c - '0');
+			} else if (c == '.' && digits > 0 && dots < 3 && value < 255) {
+				dots++;
+				digits = 0;
+				value = 0;
+			} else {
+				return false;
 			}
 		}
-		return b;
+		return dots == 3 && digits > 0 && value < 255;
 	}
 
 	public static String generic_domain(HttpServletRequest request) {
@@ -332,9 +336,27 @@ public class CommUtil {
 		return url;
 	}
 	
+	/**
+	 * 密码是否为minLength~maxLength位字母和数字，且不全是数字、不全是字母；逐个字符扫描，不用正则
+	 */
 	public static boolean isPwdWithCharAndNum(String password, int minLength, int maxLength) {
-		String regex = "^(?![0-9]+$)(?![a-zA-Z]+$)[0-9A-Za-z]{"+ String.valueOf(minLength) +","+ String.valueOf(maxLength) +"}$";					
-		return password.matches(regex);
+		int length = password.length();
+		if (length < minLength || length > maxLength) {
+			return false;
+		}
+		boolean hasDigit = false;
+		boolean hasLetter = false;
+		for (int i = 0; i < length; i++) {
+			char c = password.charAt(i);
+			if (c >= '0' && c <= '9') {
+				hasDigit = true;
+			} else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+				hasLetter = true;
+			} else {
+				return false;
+			}
+		}
+		return length == 0 || (hasDigit && hasLetter);
 	}
 	
 	/**
@@ -419,10 +441,9 @@ public class CommUtil {
 	public static long getSecondsBetweenDate(String start,String end){
 		long seconds = 0;
 		try {
-			SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-			Date startDate = df.parse(start);
-			Date endDate = df.parse(end);
-			seconds = (endDate.getTime()-startDate.getTime())/1000;
+			long startTime = DateFormats.parseMillis(start, DateFormats.LONG_DATE);
+			long endTime = DateFormats.parseMillis(end, DateFormats.LONG_DATE);
+			seconds = (endTime-startTime)/1000;
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -437,10 +458,9 @@ public class CommUtil {
 	public static String getSecondsToCurrentTime(String time) {
 		long seconds = 0;
 		try {
-			SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 			if (null != time && time.length() != 0) {
-				Date startDate = df.parse(time);
-				seconds = (startDate.getTime() - System.currentTimeMillis()) / 1000;
+				long startTime = DateFormats.parseMillis(time, DateFormats.LONG_DATE);
+				seconds = (startTime - System.currentTimeMillis()) / 1000;
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -474,7 +494,7 @@ public class CommUtil {
 //			}
 			
 			//去掉汉字，避免误处理
-			parameter = parameter.replaceAll("[\\u4e00-\\u9fa5]", "");
+			parameter = removeChinese(parameter);
 			
 			if (!StringUtils.isEmpty(parameter)) {
 				byte[] parByte = parameter.getBytes();
@@ -490,4 +510,23 @@ public class CommUtil {
 		
 		return true;
 	}
+
+	/**
+	 * 去掉\u4e00~\u9fa5范围内的汉字，不含汉字时返回原字符串
+	 */
+	private static String removeChinese(String s) {
+		StringBuilder sb = null;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= '\u4e00' && c <= '\u9fa5') {
+				if (sb == null) {
+					sb = new StringBuilder(s.length());
+					sb.append(s, 0, i);
+				}
+			} else if (sb != null) {
+				sb.append(c);
+			}
+		}
+		return sb == null ? s : sb.toString();
+	}
 }
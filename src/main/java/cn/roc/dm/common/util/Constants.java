@@ -21,6 +21,12 @@ public class Constants {
 	public static final int PAGE_NUM_DEFAULT = 1;
 	public static final int PAGE_SIZE_DEFAULT = 20;
 	public static final String REQUEST_START_TIME = "requestStartTime";
+	public static final String LOG_SAMPLED = "logSampled";
+	public static final String REQUEST_URL = "requestUrl";
+	public static final String REQUEST_IP = "requestIp";
+	public static final String SLOW_SAMPLING = "slowSampling";
+	public static final String HANDLER_END_TIME = "handlerEndTime";
+	public static final String RESPONSE_COUNTER = "responseCounter";
 
 	/* MediaTypes 常量*/
 	public static final String APPLICATION_XML = "application/xml";
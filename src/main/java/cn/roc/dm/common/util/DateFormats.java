@@ -0,0 +1,196 @@
+package cn.roc.dm.common.util;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 线程安全的日期解析、格式化，替代每次new SimpleDateFormat
+ * <p>yyyy-MM-dd和yyyy-MM-dd HH:mm:ss直接按位解析、拼接数字，不创建formatter；
+ * 其他格式及快速路径处理不了的输入（1位数的月日、超出范围的值、1970年以前的日期等）交给按格式、按线程缓存的SimpleDateFormat，
+ * 结果与new SimpleDateFormat(pattern)完全一致（宽松解析、忽略末尾多余的字符、系统默认时区）。
+ * @author Roc Chen
+ */
+public final class DateFormats {
+
+	public static final String SHORT_DATE = "yyyy-MM-dd";
+
+	public static final String LONG_DATE = "yyyy-MM-dd HH:mm:ss";
+
+	/**
+	 * 快速路径只处理此年份及以后的日期，更早的日期SimpleDateFormat可能按儒略历、地方平时计算，与java.time不同
+	 */
+	static final int MIN_FAST_YEAR = 1970;
+
+	private static final ConcurrentMap<String, ThreadLocal<SimpleDateFormat>> FORMATS = new ConcurrentHashMap<String, ThreadLocal<SimpleDateFormat>>();
+
+	private DateFormats() {
+	}
+
+	/**
+	 * 当前线程的SimpleDateFormat，调用方不能修改它的设置，也不能传给其他线程
+	 */
+	static SimpleDateFormat simpleDateFormat(final String pattern) {
+		ThreadLocal<SimpleDateFormat> format = FORMATS.get(pattern);
+		if (format == null) {
+			// 先校验格式，格式错误时抛出IllegalArgumentException，与new SimpleDateFormat相同
+			new SimpleDateFormat(pattern);
+			format = new ThreadLocal<SimpleDateFormat>() {
+				@Override
+				protected SimpleDateFormat initialValue() {
+					return new SimpleDateFormat(pattern);
+				}
+			};
+			ThreadLocal<SimpleDateFormat> existing = FORMATS.putIfAbsent(pattern, format);
+			if (existing != null) {
+				format = existing;
+			}
+		}
+		SimpleDateFormat dateFormat = format.get();
+		// 系统默认时区可能被修改，与每次new SimpleDateFormat保持一致
+		dateFormat.setTimeZone(TimeZone.getDefault());
+		return dateFormat;
+	}
+
+	/**
+	 * 解析日期，格式不匹配时抛出{@link DateTimeException}
+	 */
+	public static Date parse(String text, String pattern) {
+		return new Date(parseMillis(text, pattern));
+	}
+
+	public static long parseMillis(String text, String pattern) {
+		if (text == null) {
+			throw new DateTimeException("text is null");
+		}
+		if (SHORT_DATE.equals(pattern) || LONG_DATE.equals(pattern)) {
+			long millis = parseFast(text, LONG_DATE.equals(pattern));
+			if (millis != Long.MIN_VALUE) {
+				return millis;
+			}
+		}
+		// 与SimpleDateFormat.parse(String)相同，不要求解析到末尾
+		ParsePosition position = new ParsePosition(0);
+		Date date = simpleDateFormat(pattern).parse(text, position);
+		if (date == null) {
+			throw new DateTimeException("Unparseable date: \"" + text + "\"");
+		}
+		return date.getTime();
+	}
+
+	/**
+	 * 按位解析标准格式（4位年，2位月、日、时、分、秒，分隔符一致），不符合时返回Long.MIN_VALUE，由SimpleDateFormat处理
+	 */
+	static long parseFast(String text, boolean withTime) {
+		int length = withTime ? 19 : 10;
+		if (text.length() < length || (!withTime && text.length() > length && isDigit(text.charAt(length)))) {
+			return Long.MIN_VALUE;
+		}
+		if (text.charAt(4) != '-' || text.charAt(7) != '-') {
+			return Long.MIN_VALUE;
+		}
+		if (withTime && (text.charAt(10) != ' ' || text.charAt(13) != ':' || text.charAt(16) != ':'
+				|| (text.length() > length && isDigit(text.charAt(length))))) {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 2);
+		int day = digits(text, 8, 2);
+		int hour = withTime ? digits(text, 11, 2) : 0;
+		int minute = withTime ? digits(text, 14, 2) : 0;
+		int second = withTime ? digits(text, 17, 2) : 0;
+		if (year < MIN_FAST_YEAR || month < 1 || month > 12 || day < 1 || (day > 28 && day > LocalDate.of(year, month, 1).lengthOfMonth())
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return Long.MIN_VALUE;
+		}
+		long localSeconds = LocalDate.of(year, month, day).toEpochDay() * 86400L + hour * 3600 + minute * 60 + second;
+		ZoneRules rules = ZoneId.systemDefault().getRules();
+		LocalDateTime local = LocalDateTime.ofEpochSecond(localSeconds, 0, ZoneOffset.UTC);
+		ZoneOffsetTransition transition = rules.getTransition(local);
+		ZoneOffset offset = transition != null && transition.isOverlap() ? transition.getOffsetAfter() : rules.getOffset(local);
+		return (localSeconds - offset.getTotalSeconds()) * 1000L;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * 解析count位数字，含非数字时返回-1
+	 */
+	private static int digits(String text, int off, int count) {
+		int value = 0;
+		for (int i = off; i < off + count; i++) {
+			char c = text.charAt(i);
+			if (!isDigit(c)) {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	/**
+	 * 格式化Date或毫秒数（Number），与SimpleDateFormat.format(Object)相同，其他类型抛出IllegalArgumentException
+	 */
+	public static String format(Object value, String pattern) {
+		long millis;
+		if (value instanceof Date) {
+			millis = ((Date) value).getTime();
+		} else if (value instanceof Number) {
+			millis = ((Number) value).longValue();
+		} else {
+			throw new IllegalArgumentException("Cannot format given Object as a Date");
+		}
+		return format(millis, pattern);
+	}
+
+	public static String format(long millis, String pattern) {
+		if (SHORT_DATE.equals(pattern) || LONG_DATE.equals(pattern)) {
+			LocalDateTime time = LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L), 0,
+					ZoneId.systemDefault().getRules().getOffset(Instant.ofEpochMilli(millis)));
+			if (time.getYear() >= MIN_FAST_YEAR && time.getYear() <= 9999) {
+				return formatFast(time, LONG_DATE.equals(pattern));
+			}
+		}
+		return simpleDateFormat(pattern).format(new Date(millis));
+	}
+
+	private static String formatFast(LocalDateTime time, boolean withTime) {
+		char[] buf = new char[withTime ? 19 : 10];
+		int year = time.getYear();
+		buf[0] = (char) ('0' + year / 1000);
+		buf[1] = (char) ('0' + year / 100 % 10);
+		buf[2] = (char) ('0' + year / 10 % 10);
+		buf[3] = (char) ('0' + year % 10);
+		buf[4] = '-';
+		twoDigits(buf, 5, time.getMonthValue());
+		buf[7] = '-';
+		twoDigits(buf, 8, time.getDayOfMonth());
+		if (withTime) {
+			buf[10] = ' ';
+			twoDigits(buf, 11, time.getHour());
+			buf[13] = ':';
+			twoDigits(buf, 14, time.getMinute());
+			buf[16] = ':';
+			twoDigits(buf, 17, time.getSecond());
+		}
+		return new String(buf);
+	}
+
+	private static void twoDigits(char[] buf, int off, int value) {
+		buf[off] = (char) ('0' + value / 10);
+		buf[off + 1] = (char) ('0' + value % 10);
+	}
+}
@@ -0,0 +1,48 @@
+package cn.roc.dm.common.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * 编译后的正则缓存，替代String.matches、String.replaceAll每次编译正则
+ * <p>最多缓存{@link #MAX_CACHED}个，超出后新的正则每次编译、不再缓存，避免动态拼接的正则撑满内存。
+ * @author Roc Chen
+ */
+public final class Patterns {
+
+	static final int MAX_CACHED = 256;
+
+	private static final ConcurrentMap<String, Pattern> PATTERNS = new ConcurrentHashMap<String, Pattern>();
+
+	private Patterns() {
+	}
+
+	public static Pattern compile(String regex) {
+		Pattern pattern = PATTERNS.get(regex);
+		if (pattern == null) {
+			pattern = Pattern.compile(regex);
+			if (PATTERNS.size() < MAX_CACHED) {
+				Pattern existing = PATTERNS.putIfAbsent(regex, pattern);
+				if (existing != null) {
+					pattern = existing;
+				}
+			}
+		}
+		return pattern;
+	}
+
+	/**
+	 * 与input.matches(regex)相同
+	 */
+	public static boolean matches(String regex, CharSequence input) {
+		return compile(regex).matcher(input).matches();
+	}
+
+	/**
+	 * 与input.replaceAll(regex, replacement)相同
+	 */
+	public static String replaceAll(String input, String regex, String replacement) {
+		return compile(regex).matcher(input).replaceAll(replacement);
+	}
+}
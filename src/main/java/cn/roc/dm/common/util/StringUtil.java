@@ -25,6 +25,8 @@ public abstract class StringUtil {
      * Solr特殊字符
      */
     public static final String regex = "[ +\\-&|!(){}\\[\\]^\"~*?:(\\)]";
+
+    private static final Pattern SOLR_PATTERN = Pattern.compile(regex);
     
     /**
      * 把String的首字母变成大写
@@ -1927,7 +1929,7 @@ public abstract class StringUtil {
             return keyword;
         }
         for (String specialWord : specialWords) {
-            keyword = keyword.replaceAll(specialWord, "");
+            keyword = Patterns.replaceAll(keyword, specialWord, "");
         }
         return keyword.trim();
     }
@@ -2050,7 +2052,7 @@ public abstract class StringUtil {
     //删除 ￥199.00中的".00" 变成￥199
     public static String removePriceZZ(String str) {
         if (!StringUtil.isEmpty(str)) {
-            String _doc = str.replaceAll("\\.00", "");
+            String _doc = Patterns.replaceAll(str, "\\.00", "");
             return _doc;
         }
         return str;
@@ -2123,8 +2125,7 @@ public abstract class StringUtil {
      */
     public static String transformSolrMetacharactor(String input) {
 		StringBuffer sb = new StringBuffer();		
-		Pattern pattern = Pattern.compile(regex);
-		Matcher matcher = pattern.matcher(input);
+		Matcher matcher = SOLR_PATTERN.matcher(input);
 		while (matcher.find()) {
 			matcher.appendReplacement(sb, "\\\\" + matcher.group());
 		}
@@ -0,0 +1,104 @@
+package cn.roc.dm.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import cn.roc.wt.common.log.LogSampler;
+import cn.roc.wt.common.log.LoggerFactoryUtil;
+import cn.roc.wt.common.log.ResultLogSerializer;
+import cn.roc.wt.common.metrics.LatencyRegistry;
+import cn.roc.wt.filter.XssHttpServletRequestWrapper;
+import cn.roc.wt.filter.XssValueCache;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * 运行指标查询，部署时应在网关或容器层限制只允许内网访问
+ */
+@Controller
+@RequestMapping("/admin")
+public class MetricsController extends BaseController {
+
+	/**
+	 * 耗时等分布统计，每个registry输出unit和各key的snapshots
+	 * @param name registry名，为空时返回全部
+	 */
+	@RequestMapping(value = "/latency.json", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Map<String, Object>> latency(@RequestParam(value = "name", required = false) String name) {
+		Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+		for (Map.Entry<String, LatencyRegistry> entry : LatencyRegistry.all().entrySet()) {
+			if (name == null || name.equals(entry.getKey())) {
+				Map<String, Object> registry = new LinkedHashMap<String, Object>();
+				registry.put("unit", entry.getValue().getUnit());
+				registry.put("snapshots", entry.getValue().getSnapshots());
+				result.put(entry.getKey(), registry);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 请求头xss过滤缓存的条数、命中、未命中、淘汰次数和命中率
+	 */
+	@RequestMapping(value = "/xss-cache.json", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Map<String, Object>> xssCache() {
+		Map<String, Map<String, Object>> result = new LinkedHashMap<String, Map<String, Object>>();
+		result.put("header", cacheStats(XssHttpServletRequestWrapper.getHeaderCache()));
+		return result;
+	}
+
+	/**
+	 * access、info日志采样和限流的统计：按路径采样保留、丢弃的请求数，各logger放行、限流丢弃的条数
+	 */
+	@RequestMapping(value = "/log-sampling.json", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> logSampling() {
+		LogSampler sampler = LoggerFactoryUtil.getSampler();
+		Map<String, Object> url = new LinkedHashMap<String, Object>();
+		url.put("sampled", sampler.getUrlSampledCount());
+		url.put("dropped", sampler.getUrlDroppedCount());
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("slowMillis", sampler.getSlowMillis());
+		result.put("url", url);
+		result.put(sampler.getAccess().getName(), channelStats(sampler.getAccess()));
+		result.put(sampler.getInfo().getName(), channelStats(sampler.getInfo()));
+		return result;
+	}
+
+	/**
+	 * 返回值日志的队列积压、丢弃和截断数
+	 */
+	@RequestMapping(value = "/result-log.json", method = RequestMethod.GET)
+	@ResponseBody
+	public Map<String, Object> resultLog() {
+		ResultLogSerializer serializer = ResultLogSerializer.getInstance();
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("pending", serializer.getPendingCount());
+		result.put("dropped", serializer.getDroppedCount());
+		result.put("truncated", serializer.getTruncatedCount());
+		return result;
+	}
+
+	private static Map<String, Object> channelStats(LogSampler.Channel channel) {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("rate", channel.getRate());
+		stats.put("passed", channel.getPassedCount());
+		stats.put("limited", channel.getLimitedCount());
+		return stats;
+	}
+
+	private static Map<String, Object> cacheStats(XssValueCache cache) {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("size", cache.getSize());
+		stats.put("hits", cache.getHitCount());
+		stats.put("misses", cache.getMissCount());
+		stats.put("evictions", cache.getEvictionCount());
+		stats.put("hitRate", cache.getHitRate());
+		return stats;
+	}
+}
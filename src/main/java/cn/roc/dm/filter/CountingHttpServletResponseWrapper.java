@@ -0,0 +1,152 @@
+package cn.roc.dm.filter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * 统计响应体字节数的Wrapper，不缓冲、不改变写出行为
+ * <p>通过getWriter写出的字符按UTF-8计算字节数，其他编码按每个字符1字节估算（本项目统一使用UTF-8）。
+ */
+public class CountingHttpServletResponseWrapper extends HttpServletResponseWrapper {
+
+	private long byteCount;
+
+	private ServletOutputStream outputStream;
+
+	private PrintWriter writer;
+
+	public CountingHttpServletResponseWrapper(HttpServletResponse response) {
+		super(response);
+	}
+
+	/**
+	 * 已写出的响应体字节数
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (outputStream == null) {
+			outputStream = new CountingOutputStream(super.getOutputStream());
+		}
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (writer == null) {
+			writer = new PrintWriter(new CountingWriter(super.getWriter(), "UTF-8".equalsIgnoreCase(getCharacterEncoding())));
+		}
+		return writer;
+	}
+
+	static int utf8Length(char c) {
+		if (c < 0x80) {
+			return 1;
+		} else if (c < 0x800 || Character.isSurrogate(c)) {
+			// 代理对的两个char合计4字节
+			return 2;
+		}
+		return 3;
+	}
+
+	private class CountingOutputStream extends ServletOutputStream {
+
+		private final ServletOutputStream out;
+
+		CountingOutputStream(ServletOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			byteCount++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			byteCount += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return out.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			out.setWriteListener(writeListener);
+		}
+	}
+
+	private class CountingWriter extends Writer {
+
+		private final Writer out;
+
+		private final boolean utf8;
+
+		CountingWriter(Writer out, boolean utf8) {
+			this.out = out;
+			this.utf8 = utf8;
+		}
+
+		@Override
+		public void write(int c) throws IOException {
+			out.write(c);
+			byteCount += utf8 ? utf8Length((char) c) : 1;
+		}
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			out.write(cbuf, off, len);
+			if (utf8) {
+				for (int i = off; i < off + len; i++) {
+					byteCount += utf8Length(cbuf[i]);
+				}
+			} else {
+				byteCount += len;
+			}
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			out.write(str, off, len);
+			if (utf8) {
+				for (int i = off; i < off + len; i++) {
+					byteCount += utf8Length(str.charAt(i));
+				}
+			} else {
+				byteCount += len;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+}
@@ -2,46 +2,275 @@ package cn.roc.dm.filter;
 
 /**
  * XSS漏洞过滤器
+ * <p>单次扫描完成转义，不需要转义时直接返回原字符串，转义结果写入线程复用的缓冲区。
+ * 输出与原先基于replaceAll的实现完全一致：
+ * <ul>
+ *     <li>{@code <}、{@code >}、{@code '} 分别转义为 {@code &lt;}、{@code &gt;}、{@code &#39;}</li>
+ *     <li>{@code &} 转义为 {@code &amp;}，但若其后紧跟已转义的实体（见 {@link #ENTITY_SUFFIXES}）则保持不变，
+ *     避免出现 {@code &amp;amp;} 的二次转义；已转义的 {@code &amp;} 同样视为一个 {@code &}</li>
+ * </ul>
  * @author Roc Chen
  * @Date 14:02 2017/5/11
  */
 public class FilterUtil {
 
+	/**
+	 * 不需要二次转义的实体（去掉开头的&）
+	 */
+	static final String[] ENTITY_SUFFIXES = {"gt;", "lt;", "apos;", "quot;", "nbsp;", "#61;", "#96;", "#39;"};
 
-    public static String filterXss(String content){
-    	content = content.replaceAll("<", "&lt;")
-		  .replaceAll(">", "&gt;")
-		  .replaceAll("'", "&#39;")
-		  .replaceAll("&", "&amp;");
-		//参数经过防止XXS攻击后将&amp;替换成&amp;amp;的情况
-    	content = content.replaceAll("&amp;amp;", "&amp;")
-		  .replaceAll("&amp;gt;", "&gt;")
-		  .replaceAll("&amp;lt;", "&lt;")
-		  .replaceAll("&amp;apos;", "&apos;")
-		  .replaceAll("&amp;quot;", "&quot;")
-		  .replaceAll("&amp;nbsp;", "&nbsp;")
-		  .replaceAll("&amp;#61;", "&#61;")
-		  .replaceAll("&amp;#96;", "&#96;")
-		  .replaceAll("&amp;#39;", "&#39;");
-    	return content;
-    }
-
-    public static String deFilterXss(String content) {
-        content = content .replaceAll("&lt;", "<")
-                .replaceAll("&gt;", ">")
-                .replaceAll("&#39;", "'")
-                .replaceAll("&#39;", "&amp;#39;")
-                .replaceAll("&#96;", "&amp;#96;")
-                .replaceAll("&#61;","&amp;#61;")
-                .replaceAll( "&nbsp;","&amp;nbsp;")
-                .replaceAll( "&quot;","&amp;quot;")
-                .replaceAll("&apos;","&amp;apos;")
-                .replaceAll("&lt;","&amp;lt;")
-                .replaceAll("&gt;","&amp;gt;")
-                .replaceAll("&amp;", "&amp;amp;")
-                .replaceAll("&amp;", "&");
-        //参数经过防止XXS攻击后将&amp;替换成&amp;amp;的情况
-        return content;
-    }
+	/**
+	 * 反转义时需要恢复为&amp;前缀的实体（去掉开头的&）
+	 */
+	static final String[] ESCAPED_ENTITY_SUFFIXES = {"#96;", "#61;", "nbsp;", "quot;", "apos;"};
+
+	private static final String AMP_SUFFIX = "amp;";
+
+	/**
+	 * 判断&是否需要转义时最多需要的字符数：&amp; + 最长的实体后缀
+	 */
+	static final int MAX_LOOKAHEAD = 1 + 4 + 5;
+
+	/**
+	 * 需要转义的字符位图：&lt; &gt; ' &amp; 的码值都小于64，一个long即可覆盖，非ASCII字符无需转义
+	 */
+	private static final long SPECIAL_CHAR_MASK = (1L << '<') | (1L << '>') | (1L << '\'') | (1L << '&');
+
+	/**
+	 * 超过该长度改用String.indexOf逐个查找特殊字符，JIT对indexOf有向量化的内建实现
+	 */
+	static final int INTRINSIC_SCAN_THRESHOLD = 32;
+
+	/**
+	 * 复用缓冲区的最大容量，超过后丢弃，避免线程长期持有大对象
+	 */
+	private static final int MAX_BUFFER_CAPACITY = 8 * 1024;
+
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	public static String filterXss(String content) {
+		if (content == null) {
+			return null;
+		}
+		// 大部分参数不含特殊字符，批量检测后直接返回原字符串
+		int i = indexOfSpecialChar(content);
+		if (i < 0) {
+			return content;
+		}
+		int len = content.length();
+		StringBuilder sb = null;
+		while (i < len) {
+			char c = content.charAt(i);
+			String replacement;
+			int next = i + 1;
+			switch (c) {
+				case '<':
+					replacement = "&lt;";
+					break;
+				case '>':
+					replacement = "&gt;";
+					break;
+				case '\'':
+					replacement = "&#39;";
+					break;
+				case '&':
+					// 已转义的&amp;与单个&等价
+					if (content.startsWith(AMP_SUFFIX, next)) {
+						next += AMP_SUFFIX.length();
+					}
+					replacement = startsWithAny(content, next, ENTITY_SUFFIXES) ? "&" : "&amp;";
+					if (sb == null && replacement.length() == next - i) {
+						// 输出与原文相同，无需改写
+						i = next;
+						continue;
+					}
+					break;
+				default:
+					if (sb != null) {
+						sb.append(c);
+					}
+					i++;
+					continue;
+			}
+			if (sb == null) {
+				sb = borrowBuffer(len + 16);
+				sb.append(content, 0, i);
+			}
+			sb.append(replacement);
+			i = next;
+		}
+		return sb == null ? content : releaseBuffer(sb);
+	}
+
+	public static String deFilterXss(String content) {
+		if (content == null) {
+			return null;
+		}
+		int i = content.indexOf('&');
+		if (i < 0) {
+			return content;
+		}
+		int len = content.length();
+		StringBuilder sb = null;
+		while (i < len) {
+			char c = content.charAt(i);
+			if (c != '&') {
+				if (sb != null) {
+					sb.append(c);
+				}
+				i++;
+				continue;
+			}
+			String replacement;
+			int next;
+			if (content.startsWith("lt;", i + 1)) {
+				replacement = "<";
+				next = i + 4;
+			} else if (content.startsWith("gt;", i + 1)) {
+				replacement = ">";
+				next = i + 4;
+			} else if (content.startsWith("#39;", i + 1)) {
+				replacement = "'";
+				next = i + 5;
+			} else if (startsWithAny(content, i + 1, ESCAPED_ENTITY_SUFFIXES)) {
+				//参数经过防止XXS攻击后将&amp;替换成&amp;amp;的情况
+				replacement = "&amp;";
+				next = i + 1;
+			} else {
+				if (sb != null) {
+					sb.append(c);
+				}
+				i++;
+				continue;
+			}
+			if (sb == null) {
+				sb = borrowBuffer(len + 16);
+				sb.append(content, 0, i);
+			}
+			sb.append(replacement);
+			i = next;
+		}
+		return sb == null ? content : releaseBuffer(sb);
+	}
+
+	/**
+	 * 查找第一个需要转义的字符（&lt; &gt; ' &amp;）
+	 * <p>短字符串逐字符查位图；长字符串对四个字符分别调用String.indexOf，
+	 * 由JIT的向量化内建实现批量扫描，不含特殊字符时每次都是整串的快速扫描。
+	 * @return 第一个特殊字符的位置，没有则返回-1
+	 */
+	static int indexOfSpecialChar(String content) {
+		int len = content.length();
+		if (len < INTRINSIC_SCAN_THRESHOLD) {
+			for (int i = 0; i < len; i++) {
+				char c = content.charAt(i);
+				if (c < 64 && ((SPECIAL_CHAR_MASK >>> c) & 1L) != 0) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		int first = minIndex(-1, content.indexOf('&'));
+		first = minIndex(first, content.indexOf('<'));
+		first = minIndex(first, content.indexOf('>'));
+		return minIndex(first, content.indexOf('\''));
+	}
+
+	private static int minIndex(int a, int b) {
+		if (a < 0) {
+			return b;
+		}
+		return b < 0 ? a : Math.min(a, b);
+	}
+
+	/**
+	 * 流式过滤：按filterXss的规则转义content[start, end)并写入out，用于分块处理的请求体
+	 * <p>&amp;需要向后查看最多{@link #MAX_LOOKAHEAD}个字符才能判断是否转义，
+	 * 非最后一块时遇到后续字符不足的&amp;即停止，由调用方补齐后续内容再继续。
+	 * @param last 是否为最后一块
+	 * @return 下一个未处理字符的位置
+	 */
+	static int filterXss(CharSequence content, int start, int end, boolean last, StringBuilder out) {
+		int i = start;
+		while (i < end) {
+			char c = content.charAt(i);
+			switch (c) {
+				case '<':
+					out.append("&lt;");
+					break;
+				case '>':
+					out.append("&gt;");
+					break;
+				case '\'':
+					out.append("&#39;");
+					break;
+				case '&':
+					if (!last && end - i < MAX_LOOKAHEAD) {
+						return i;
+					}
+					int next = i + 1;
+					if (regionMatches(content, next, end, AMP_SUFFIX)) {
+						next += AMP_SUFFIX.length();
+					}
+					boolean entity = false;
+					for (String suffix : ENTITY_SUFFIXES) {
+						if (regionMatches(content, next, end, suffix)) {
+							entity = true;
+							break;
+						}
+					}
+					out.append(entity ? "&" : "&amp;");
+					i = next;
+					continue;
+				default:
+					out.append(c);
+			}
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean regionMatches(CharSequence content, int offset, int end, String prefix) {
+		if (end - offset < prefix.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (content.charAt(offset + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static boolean startsWithAny(String content, int offset, String[] prefixes) {
+		for (String prefix : prefixes) {
+			if (content.startsWith(prefix, offset)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static StringBuilder borrowBuffer(int capacity) {
+		StringBuilder sb = BUFFER.get();
+		sb.setLength(0);
+		sb.ensureCapacity(capacity);
+		return sb;
+	}
+
+	private static String releaseBuffer(StringBuilder sb) {
+		String result = sb.toString();
+		if (sb.capacity() > MAX_BUFFER_CAPACITY) {
+			BUFFER.set(new StringBuilder(256));
+		} else {
+			sb.setLength(0);
+		}
+		return result;
+	}
 
 }
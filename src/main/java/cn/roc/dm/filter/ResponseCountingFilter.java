@@ -0,0 +1,27 @@
+package cn.roc.dm.filter;
+
+import cn.roc.dm.common.util.Constants;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 统计响应体字节数，Wrapper放在请求属性{@link Constants#RESPONSE_COUNTER}中，由LogInterceptor输出到access日志
+ */
+public class ResponseCountingFilter implements Filter {
+
+	public void destroy() {
+		// do nothing
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain filterChain) throws IOException, ServletException {
+		CountingHttpServletResponseWrapper countingResponse = new CountingHttpServletResponseWrapper((HttpServletResponse) response);
+		request.setAttribute(Constants.RESPONSE_COUNTER, countingResponse);
+		filterChain.doFilter(request, countingResponse);
+	}
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		// do nothing
+	}
+}
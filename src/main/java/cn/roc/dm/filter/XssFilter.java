@@ -1,39 +1,83 @@
 package cn.roc.dm.filter;
 
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Set;
+import java.io.InputStream;
 
 /**
  * XSS漏洞过滤器
+ * <p>初始化参数policyConfig指定过滤策略文件（classpath路径，或以file:开头的文件路径），
+ * 默认读取classpath下的config/xss.properties，文件不存在时对所有请求做过滤。
  * @author Roc Chen
  * @Date 14:02 2017/5/11
  */
 public class XssFilter implements Filter {
 
+	static final String POLICY_CONFIG_PARAM = "policyConfig";
+
+	static final String DEFAULT_POLICY_CONFIG = "config/xss.properties";
+
+	private XssPolicyTable policyTable = XssPolicyTable.defaultTable();
+
 	public void destroy() {
-		// do nothing
+		XssHttpServletRequestWrapper.getHeaderCache().unregisterMBean();
 	}
 
 	public void doFilter(ServletRequest request, ServletResponse response, FilterChain filterChain) throws IOException, ServletException {
-		Map<String, String[]> paramMap = request.getParameterMap();
-		Set<String> keySet = paramMap.keySet();
-		for (Iterator iterator = keySet.iterator(); iterator.hasNext();) {
-			String key = (String) iterator.next();
-			String[] str = paramMap.get(key);
-			for (int i = 0; i < str.length; i++) {
-				str[i] = FilterUtil.filterXss(str[i]);
-			}
+		HttpServletRequest httpRequest = (HttpServletRequest) request;
+		XssPolicy policy = policyTable.lookup(getPath(httpRequest));
+		if (!policy.isEnabled()) {
+			filterChain.doFilter(request, response);
+			return;
 		}
-		XssHttpServletRequestWrapper xssRequest = new XssHttpServletRequestWrapper((HttpServletRequest) request);
+		// 参数在读取时由XssHttpServletRequestWrapper按需过滤
+		XssHttpServletRequestWrapper xssRequest = new XssHttpServletRequestWrapper(httpRequest, policy);
 		filterChain.doFilter(xssRequest, response);
 	}
 
-	public void init(FilterConfig arg0) throws ServletException {
-		// do nothing
+	public void init(FilterConfig filterConfig) throws ServletException {
+		XssHttpServletRequestWrapper.getHeaderCache().registerMBean("header");
+		String location = filterConfig.getInitParameter(POLICY_CONFIG_PARAM);
+		if (location == null || location.trim().length() == 0) {
+			location = DEFAULT_POLICY_CONFIG;
+		}
+		location = location.trim();
+		InputStream in = null;
+		try {
+			if (location.startsWith("file:")) {
+				in = new FileInputStream(location.substring("file:".length()));
+			} else {
+				if (location.startsWith("classpath:")) {
+					location = location.substring("classpath:".length());
+				}
+				in = XssFilter.class.getClassLoader().getResourceAsStream(location.startsWith("/") ? location.substring(1) : location);
+			}
+			if (in == null) {
+				LoggerFactoryUtil.info("XssFilter policy config [" + location + "] not found, filter all requests");
+				return;
+			}
+			policyTable = XssPolicyTable.load(in);
+		} catch (IOException e) {
+			throw new ServletException("Failed to load XssFilter policy config [" + location + "]", e);
+		} catch (IllegalArgumentException e) {
+			throw new ServletException("Invalid XssFilter policy config [" + location + "]", e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+	}
 
+	private static String getPath(HttpServletRequest request) {
+		String pathInfo = request.getPathInfo();
+		return pathInfo == null ? request.getServletPath() : request.getServletPath() + pathInfo;
 	}
 }
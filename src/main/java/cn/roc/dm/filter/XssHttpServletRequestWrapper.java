@@ -1,33 +1,93 @@
 package cn.roc.dm.filter;
 
+import org.apache.commons.io.input.ReaderInputStream;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * XSS漏洞过滤Warpper
+ * <p>参数在第一次被读取时才做xss过滤，过滤结果在本次请求内缓存，重复读取不再转义。
+ * JSON请求体通过getInputStream/getReader读取时边读边过滤，见{@link XssJsonReader}。
  * @author Roc Chen
  * @Date 14:02 2017/5/11
  */
 public class XssHttpServletRequestWrapper extends HttpServletRequestWrapper {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * 请求头过滤结果缓存，User-Agent、token、x-forwarded-for等取值重复度高
+	 */
+	private static final XssValueCache HEADER_CACHE = new XssValueCache(4096, 1024);
+
 	HttpServletRequest orgRequest = null;
 
+	/**
+	 * 已过滤的参数值，key为参数名（单个请求只在一个线程内处理，无需同步）
+	 */
+	private final Map<String, String[]> filteredParams = new HashMap<String, String[]>();
+
+	private Map<String, String[]> parameterMap;
+
+	private final XssPolicy policy;
+
+	private ServletInputStream inputStream;
+
+	private BufferedReader reader;
+
 	public XssHttpServletRequestWrapper(HttpServletRequest request) {
+		this(request, XssPolicy.DEFAULT);
+	}
+
+	public XssHttpServletRequestWrapper(HttpServletRequest request, XssPolicy policy) {
 		super(request);
 		orgRequest = request;
+		this.policy = policy;
 	}
 	
 	@Override
 	public String[] getParameterValues(String name) {
-	      String[] values = super.getParameterValues(name);
-	      if (values==null)  {
-	                  return null;
-	          }
-	      int count = values.length;
-	      String[] encodedValues = new String[count];
-	      for (int i = 0; i < count; i++) {
-	          encodedValues[i] = FilterUtil.filterXss(values[i]);
-	      }
-	      return encodedValues;
+		if (policy.isSkipParam(name)) {
+			return super.getParameterValues(name);
+		}
+		String[] encodedValues = filteredParams.get(name);
+		if (encodedValues != null) {
+			return encodedValues;
+		}
+		String[] values = super.getParameterValues(name);
+		if (values == null) {
+			return null;
+		}
+		encodedValues = values;
+		for (int i = 0; i < values.length; i++) {
+			String encoded = FilterUtil.filterXss(values[i]);
+			if (encoded != values[i]) {
+				// 有值被转义时才复制数组，不修改容器中的原始参数
+				if (encodedValues == values) {
+					encodedValues = values.clone();
+				}
+				encodedValues[i] = encoded;
+			}
+		}
+		filteredParams.put(name, encodedValues);
+		return encodedValues;
 	}
 	
 
@@ -38,11 +98,19 @@ public class XssHttpServletRequestWrapper extends HttpServletRequestWrapper {
 	 */
 	@Override
 	public String getParameter(String name) {
-		String value = super.getParameter(name);
-		if (value != null) {
-			value = FilterUtil.filterXss(value);
+		String[] values = getParameterValues(name);
+		return values == null || values.length == 0 ? null : values[0];
+	}
+
+	/**
+	 * 覆盖getParameterMap方法，返回只读视图，参数值在访问时才做xss过滤
+	 */
+	@Override
+	public Map<String, String[]> getParameterMap() {
+		if (parameterMap == null) {
+			parameterMap = new FilteredParameterMap();
 		}
-		return value;
+		return parameterMap;
 	}
 
 	/**
@@ -54,12 +122,80 @@ public class XssHttpServletRequestWrapper extends HttpServletRequestWrapper {
 	public String getHeader(String name) {
 
 		String value = super.getHeader(name);
-		if (value != null) {
-			value = FilterUtil.filterXss(value);
+		if (value != null && !policy.isSkipHeader(name)) {
+			value = HEADER_CACHE.filterXss(value);
 		}
 		return value;
 	}
 
+	/**
+	 * 覆盖getInputStream方法，JSON请求体边读边做xss过滤。<br/>
+	 * 表单请求体由容器解析为参数，已在getParameter中过滤，这里不做处理
+	 */
+	@Override
+	public ServletInputStream getInputStream() throws IOException {
+		if (!isJsonBody()) {
+			return super.getInputStream();
+		}
+		if (inputStream == null) {
+			Charset charset = getBodyCharset();
+			Reader jsonReader = new XssJsonReader(new InputStreamReader(super.getInputStream(), charset));
+			inputStream = new XssServletInputStream(new ReaderInputStream(jsonReader, charset));
+		}
+		return inputStream;
+	}
+
+	/**
+	 * 覆盖getReader方法，JSON请求体边读边做xss过滤
+	 */
+	@Override
+	public BufferedReader getReader() throws IOException {
+		if (!isJsonBody()) {
+			return super.getReader();
+		}
+		if (reader == null) {
+			reader = new BufferedReader(new XssJsonReader(super.getReader()));
+		}
+		return reader;
+	}
+
+	/**
+	 * 过滤后请求体长度会变化，JSON请求体不再返回原始长度
+	 */
+	@Override
+	public int getContentLength() {
+		return isJsonBody() ? -1 : super.getContentLength();
+	}
+
+	@Override
+	public long getContentLengthLong() {
+		return isJsonBody() ? -1L : super.getContentLengthLong();
+	}
+
+	private boolean isJsonBody() {
+		if (!policy.isEnabled()) {
+			return false;
+		}
+		String contentType = super.getContentType();
+		return contentType != null && contentType.toLowerCase(Locale.ENGLISH).contains("json");
+	}
+
+	private Charset getBodyCharset() {
+		String encoding = super.getCharacterEncoding();
+		try {
+			return encoding == null ? UTF_8 : Charset.forName(encoding);
+		} catch (IllegalArgumentException e) {
+			return UTF_8;
+		}
+	}
+
+	/**
+	 * 请求头过滤缓存，用于查看命中率等统计
+	 */
+	public static XssValueCache getHeaderCache() {
+		return HEADER_CACHE;
+	}
+
 	/**
 	 * 获取最原始的request
 	 * 
@@ -82,4 +218,109 @@ public class XssHttpServletRequestWrapper extends HttpServletRequestWrapper {
 		return req;
 	}
 
+	/**
+	 * 过滤后的JSON请求体，同步读取
+	 */
+	private static class XssServletInputStream extends ServletInputStream {
+
+		private final InputStream in;
+
+		private boolean finished;
+
+		XssServletInputStream(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b < 0) {
+				finished = true;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = in.read(b, off, len);
+			if (n < 0) {
+				finished = true;
+			}
+			return n;
+		}
+
+		@Override
+		public boolean isFinished() {
+			return finished;
+		}
+
+		@Override
+		public boolean isReady() {
+			return !finished;
+		}
+
+		@Override
+		public void setReadListener(ReadListener readListener) {
+			throw new UnsupportedOperationException("Async read is not supported for xss filtered body");
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * 参数Map的只读视图，取值委托给{@link #getParameterValues(String)}
+	 */
+	private class FilteredParameterMap extends AbstractMap<String, String[]> {
+
+		@Override
+		public String[] get(Object key) {
+			return key instanceof String ? getParameterValues((String) key) : null;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return orgRequest.getParameterMap().containsKey(key);
+		}
+
+		@Override
+		public int size() {
+			return orgRequest.getParameterMap().size();
+		}
+
+		@Override
+		public Set<Entry<String, String[]>> entrySet() {
+			return new AbstractSet<Entry<String, String[]>>() {
+				@Override
+				public Iterator<Entry<String, String[]>> iterator() {
+					final Enumeration<String> names = orgRequest.getParameterNames();
+					return new Iterator<Entry<String, String[]>>() {
+						@Override
+						public boolean hasNext() {
+							return names.hasMoreElements();
+						}
+
+						@Override
+						public Entry<String, String[]> next() {
+							String name = names.nextElement();
+							return new SimpleImmutableEntry<String, String[]>(name, getParameterValues(name));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return FilteredParameterMap.this.size();
+				}
+			};
+		}
+	}
+
 }
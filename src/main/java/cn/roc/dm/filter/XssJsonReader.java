@@ -0,0 +1,225 @@
+package cn.roc.dm.filter;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 对JSON请求体做XSS过滤的Reader
+ * <p>边读边过滤，只转义字符串字面量（包括对象的key）中的内容，规则与{@link FilterUtil#filterXss(String)}一致。
+ * 字符串中的\\uXXXX等转义序列先解码再过滤，避免用\\u003c绕过；输出时重新按JSON规则转义。
+ * 字符串按块处理，内存占用与请求体大小无关。格式错误的JSON原样透传，由后续的JSON解析报错。
+ */
+public class XssJsonReader extends Reader {
+
+	/**
+	 * 单个字符串字面量累计到该长度即先过滤输出一部分
+	 */
+	static final int CHUNK_SIZE = 2048;
+
+	private static final int STATE_OUTSIDE = 0;
+	private static final int STATE_STRING = 1;
+	private static final int STATE_ESCAPE = 2;
+	private static final int STATE_UNICODE = 3;
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Reader in;
+
+	private final char[] readBuffer = new char[CHUNK_SIZE];
+
+	/**
+	 * 当前字符串字面量中已解码、未过滤的内容
+	 */
+	private final StringBuilder value = new StringBuilder(CHUNK_SIZE + FilterUtil.MAX_LOOKAHEAD);
+
+	private final StringBuilder filtered = new StringBuilder(CHUNK_SIZE * 2);
+
+	/**
+	 * 待输出内容
+	 */
+	private final StringBuilder pending = new StringBuilder(CHUNK_SIZE * 2);
+
+	private int pendingPos;
+
+	private int state = STATE_OUTSIDE;
+
+	private int unicode;
+
+	private int unicodeDigits;
+
+	private boolean eof;
+
+	public XssJsonReader(Reader in) {
+		this.in = in;
+	}
+
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (pendingPos == pending.length()) {
+			if (eof) {
+				return -1;
+			}
+			pending.setLength(0);
+			pendingPos = 0;
+			fill();
+		}
+		int n = Math.min(len, pending.length() - pendingPos);
+		pending.getChars(pendingPos, pendingPos + n, cbuf, off);
+		pendingPos += n;
+		return n;
+	}
+
+	private void fill() throws IOException {
+		int n = in.read(readBuffer, 0, readBuffer.length);
+		if (n < 0) {
+			eof = true;
+			if (state != STATE_OUTSIDE) {
+				// 未闭合的字符串，剩余内容原样输出
+				flushValue(true);
+				if (state == STATE_ESCAPE) {
+					pending.append('\\');
+				} else if (state == STATE_UNICODE) {
+					appendRawUnicode();
+				}
+			}
+			return;
+		}
+		for (int i = 0; i < n; i++) {
+			accept(readBuffer[i]);
+		}
+	}
+
+	private void accept(char c) {
+		switch (state) {
+			case STATE_OUTSIDE:
+				pending.append(c);
+				if (c == '"') {
+					state = STATE_STRING;
+				}
+				break;
+			case STATE_STRING:
+				if (c == '"') {
+					flushValue(true);
+					pending.append(c);
+					state = STATE_OUTSIDE;
+				} else if (c == '\\') {
+					state = STATE_ESCAPE;
+				} else {
+					appendValue(c);
+				}
+				break;
+			case STATE_ESCAPE:
+				state = STATE_STRING;
+				switch (c) {
+					case 'b':
+						appendValue('\b');
+						break;
+					case 'f':
+						appendValue('\f');
+						break;
+					case 'n':
+						appendValue('\n');
+						break;
+					case 'r':
+						appendValue('\r');
+						break;
+					case 't':
+						appendValue('\t');
+						break;
+					case 'u':
+						state = STATE_UNICODE;
+						unicode = 0;
+						unicodeDigits = 0;
+						break;
+					default:
+						// \" \\ \/ 及非法转义都按字面字符处理
+						appendValue(c);
+				}
+				break;
+			case STATE_UNICODE:
+				int digit = Character.digit(c, 16);
+				if (digit < 0) {
+					// 非法的\\u转义，原样输出交给JSON解析报错
+					flushValue(true);
+					appendRawUnicode();
+					state = STATE_STRING;
+					accept(c);
+					return;
+				}
+				unicode = (unicode << 4) | digit;
+				if (++unicodeDigits == 4) {
+					state = STATE_STRING;
+					appendValue((char) unicode);
+				}
+				break;
+			default:
+				throw new IllegalStateException("Unknown state " + state);
+		}
+	}
+
+	private void appendValue(char c) {
+		value.append(c);
+		if (value.length() >= CHUNK_SIZE + FilterUtil.MAX_LOOKAHEAD) {
+			flushValue(false);
+		}
+	}
+
+	/**
+	 * 过滤已累计的字符串内容并按JSON规则转义后输出
+	 * @param last 字符串是否已结束
+	 */
+	private void flushValue(boolean last) {
+		if (value.length() == 0) {
+			return;
+		}
+		filtered.setLength(0);
+		int consumed = FilterUtil.filterXss(value, 0, value.length(), last, filtered);
+		value.delete(0, consumed);
+		for (int i = 0; i < filtered.length(); i++) {
+			appendJsonChar(filtered.charAt(i));
+		}
+	}
+
+	private void appendJsonChar(char c) {
+		switch (c) {
+			case '"':
+				pending.append("\\\"");
+				break;
+			case '\\':
+				pending.append("\\\\");
+				break;
+			case '\n':
+				pending.append("\\n");
+				break;
+			case '\r':
+				pending.append("\\r");
+				break;
+			case '\t':
+				pending.append("\\t");
+				break;
+			default:
+				if (c < 0x20 || Character.isSurrogate(c)) {
+					// 控制字符和代理项统一用\\uXXXX输出，避免编码时丢失不成对的代理项
+					pending.append("\\u").append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+							.append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+				} else {
+					pending.append(c);
+				}
+		}
+	}
+
+	private void appendRawUnicode() {
+		pending.append("\\u");
+		for (int i = unicodeDigits - 1; i >= 0; i--) {
+			pending.append(HEX[(unicode >> (i * 4)) & 0xF]);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -0,0 +1,59 @@
+package cn.roc.dm.filter;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * XSS过滤策略：是否过滤，以及不做过滤的参数名和请求头
+ * <p>请求头名称不区分大小写，参数名区分大小写。实例创建后不可变，可在请求间共享。
+ */
+public class XssPolicy {
+
+	/**
+	 * 默认策略：过滤所有参数和请求头
+	 */
+	public static final XssPolicy DEFAULT = new XssPolicy(true, Collections.<String>emptySet(), Collections.<String>emptySet());
+
+	private final boolean enabled;
+
+	private final Set<String> skipParams;
+
+	private final Set<String> skipHeaders;
+
+	public XssPolicy(boolean enabled, Set<String> skipParams, Set<String> skipHeaders) {
+		this.enabled = enabled;
+		this.skipParams = Collections.unmodifiableSet(new HashSet<String>(skipParams));
+		Set<String> headers = new HashSet<String>();
+		for (String header : skipHeaders) {
+			headers.add(header.toLowerCase(Locale.ENGLISH));
+		}
+		this.skipHeaders = Collections.unmodifiableSet(headers);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public boolean isSkipParam(String name) {
+		return !enabled || skipParams.contains(name);
+	}
+
+	public boolean isSkipHeader(String name) {
+		return !enabled || (name != null && skipHeaders.contains(name.toLowerCase(Locale.ENGLISH)));
+	}
+
+	public Set<String> getSkipParams() {
+		return skipParams;
+	}
+
+	public Set<String> getSkipHeaders() {
+		return skipHeaders;
+	}
+
+	@Override
+	public String toString() {
+		return "XssPolicy[enabled=" + enabled + ", skipParams=" + skipParams + ", skipHeaders=" + skipHeaders + "]";
+	}
+}
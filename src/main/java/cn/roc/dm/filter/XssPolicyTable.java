@@ -0,0 +1,221 @@
+package cn.roc.dm.filter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * 按请求路径选择XSS过滤策略的编译表，在XssFilter初始化时构建一次，之后只读
+ * <p>配置格式（未配置的属性沿用默认策略）：
+ * <pre>
+ * xss.default.enabled=true
+ * xss.default.skipHeaders=User-Agent
+ * xss.suffix.inresource.enabled=false
+ * xss.suffix.json.skipParams=content,data
+ * xss.prefix./admin/upload.enabled=false
+ * </pre>
+ * 匹配顺序：最长的路径前缀 &gt; 后缀 &gt; 默认策略。路径前缀按"/"分段匹配，
+ * 即"/admin"匹配"/admin"和"/admin/x.do"，不匹配"/administrator.do"。
+ */
+public class XssPolicyTable {
+
+	static final String KEY_PREFIX = "xss.";
+	static final String DEFAULT_KEY = "default";
+	static final String SUFFIX_KEY = "suffix.";
+	static final String PREFIX_KEY = "prefix.";
+
+	static final String ATTR_ENABLED = "enabled";
+	static final String ATTR_SKIP_PARAMS = "skipParams";
+	static final String ATTR_SKIP_HEADERS = "skipHeaders";
+
+	private final XssPolicy defaultPolicy;
+
+	private final Map<String, XssPolicy> suffixPolicies;
+
+	private final PrefixNode prefixRoot;
+
+	private XssPolicyTable(XssPolicy defaultPolicy, Map<String, XssPolicy> suffixPolicies, PrefixNode prefixRoot) {
+		this.defaultPolicy = defaultPolicy;
+		this.suffixPolicies = suffixPolicies;
+		this.prefixRoot = prefixRoot;
+	}
+
+	/**
+	 * 所有请求都使用默认策略的表
+	 */
+	public static XssPolicyTable defaultTable() {
+		return new XssPolicyTable(XssPolicy.DEFAULT, Collections.<String, XssPolicy>emptyMap(), new PrefixNode());
+	}
+
+	public static XssPolicyTable load(InputStream in) throws IOException {
+		Properties props = new Properties();
+		props.load(in);
+		return compile(props);
+	}
+
+	public static XssPolicyTable compile(Properties props) {
+		Map<String, Map<String, String>> rules = new HashMap<String, Map<String, String>>();
+		for (String key : props.stringPropertyNames()) {
+			if (!key.startsWith(KEY_PREFIX)) {
+				continue;
+			}
+			int dot = key.lastIndexOf('.');
+			if (dot <= KEY_PREFIX.length()) {
+				continue;
+			}
+			String rule = key.substring(KEY_PREFIX.length(), dot);
+			Map<String, String> attrs = rules.get(rule);
+			if (attrs == null) {
+				attrs = new HashMap<String, String>();
+				rules.put(rule, attrs);
+			}
+			attrs.put(key.substring(dot + 1), props.getProperty(key).trim());
+		}
+
+		XssPolicy defaultPolicy = buildPolicy(rules.remove(DEFAULT_KEY), XssPolicy.DEFAULT);
+		Map<String, XssPolicy> suffixPolicies = new HashMap<String, XssPolicy>();
+		PrefixNode prefixRoot = new PrefixNode();
+		for (Map.Entry<String, Map<String, String>> entry : rules.entrySet()) {
+			String rule = entry.getKey();
+			XssPolicy policy = buildPolicy(entry.getValue(), defaultPolicy);
+			if (rule.startsWith(SUFFIX_KEY)) {
+				String suffix = rule.substring(SUFFIX_KEY.length());
+				suffixPolicies.put(suffix.startsWith(".") ? suffix.substring(1) : suffix, policy);
+			} else if (rule.startsWith(PREFIX_KEY)) {
+				prefixRoot.insert(normalizePrefix(rule.substring(PREFIX_KEY.length())), policy);
+			} else {
+				throw new IllegalArgumentException("Unknown xss policy rule [" + KEY_PREFIX + rule + "]");
+			}
+		}
+		return new XssPolicyTable(defaultPolicy, suffixPolicies, prefixRoot);
+	}
+
+	/**
+	 * 查找请求路径对应的策略
+	 * @param path servletPath + pathInfo，不含contextPath
+	 */
+	public XssPolicy lookup(String path) {
+		if (path == null) {
+			return defaultPolicy;
+		}
+		XssPolicy policy = prefixRoot.match(path);
+		if (policy != null) {
+			return policy;
+		}
+		if (!suffixPolicies.isEmpty()) {
+			int dot = path.lastIndexOf('.');
+			if (dot >= 0 && path.indexOf('/', dot) < 0) {
+				policy = suffixPolicies.get(path.substring(dot + 1));
+				if (policy != null) {
+					return policy;
+				}
+			}
+		}
+		return defaultPolicy;
+	}
+
+	public XssPolicy getDefaultPolicy() {
+		return defaultPolicy;
+	}
+
+	private static XssPolicy buildPolicy(Map<String, String> attrs, XssPolicy parent) {
+		if (attrs == null) {
+			return parent;
+		}
+		String enabled = attrs.get(ATTR_ENABLED);
+		String skipParams = attrs.get(ATTR_SKIP_PARAMS);
+		String skipHeaders = attrs.get(ATTR_SKIP_HEADERS);
+		return new XssPolicy(
+				enabled == null ? parent.isEnabled() : Boolean.parseBoolean(enabled),
+				skipParams == null ? parent.getSkipParams() : splitNames(skipParams),
+				skipHeaders == null ? parent.getSkipHeaders() : splitNames(skipHeaders));
+	}
+
+	private static Set<String> splitNames(String value) {
+		Set<String> names = new LinkedHashSet<String>();
+		for (String name : value.split(",")) {
+			name = name.trim();
+			if (name.length() > 0) {
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	private static String normalizePrefix(String prefix) {
+		if (!prefix.startsWith("/")) {
+			prefix = "/" + prefix;
+		}
+		while (prefix.endsWith("/")) {
+			prefix = prefix.substring(0, prefix.length() - 1);
+		}
+		return prefix;
+	}
+
+	/**
+	 * 路径前缀字典树节点，匹配时逐字符下行，不分配对象
+	 */
+	private static class PrefixNode {
+
+		private char[] keys = new char[0];
+
+		private PrefixNode[] children = new PrefixNode[0];
+
+		private XssPolicy policy;
+
+		void insert(String prefix, XssPolicy policy) {
+			PrefixNode node = this;
+			for (int i = 0; i < prefix.length(); i++) {
+				node = node.childOrCreate(prefix.charAt(i));
+			}
+			node.policy = policy;
+		}
+
+		XssPolicy match(String path) {
+			XssPolicy matched = policy;
+			PrefixNode node = this;
+			int len = path.length();
+			for (int i = 0; i < len; i++) {
+				node = node.child(path.charAt(i));
+				if (node == null) {
+					break;
+				}
+				if (node.policy != null && (i + 1 == len || path.charAt(i + 1) == '/')) {
+					matched = node.policy;
+				}
+			}
+			return matched;
+		}
+
+		private PrefixNode child(char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		private PrefixNode childOrCreate(char c) {
+			PrefixNode child = child(c);
+			if (child == null) {
+				child = new PrefixNode();
+				int n = keys.length;
+				char[] newKeys = new char[n + 1];
+				PrefixNode[] newChildren = new PrefixNode[n + 1];
+				System.arraycopy(keys, 0, newKeys, 0, n);
+				System.arraycopy(children, 0, newChildren, 0, n);
+				newKeys[n] = c;
+				newChildren[n] = child;
+				keys = newKeys;
+				children = newChildren;
+			}
+			return child;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package cn.roc.dm.filter;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import cn.roc.dm.common.log.LoggerFactoryUtil;
+
+/**
+ * 原始值到xss过滤结果的LRU缓存，在请求间共享，线程安全
+ * <p>按hash分段，每段是一个按访问顺序排列的LinkedHashMap，段内加锁，段间互不影响。
+ * 不需要转义的值由{@link FilterUtil#filterXss(String)}的快速检测直接返回，不进入缓存；
+ * 超过maxValueLength的值也不缓存，避免攻击者用大量不同的长值占满内存。
+ * <p>条数、命中率等统计通过JMX（{@link #registerMBean(String)}）和/admin/xss-cache.json查看。
+ */
+public class XssValueCache implements XssValueCacheMXBean {
+
+	private static final int SEGMENT_COUNT = 16;
+
+	private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+	private final int maxValueLength;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private volatile ObjectName objectName;
+
+	/**
+	 * @param maxSize 缓存的最大条数
+	 * @param maxValueLength 可缓存的原始值最大长度
+	 */
+	public XssValueCache(int maxSize, int maxValueLength) {
+		int segmentSize = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment(segmentSize);
+		}
+		this.maxValueLength = maxValueLength;
+	}
+
+	/**
+	 * 返回xss过滤后的值，命中缓存时不再转义
+	 */
+	public String filterXss(String value) {
+		if (value == null) {
+			return null;
+		}
+		if (FilterUtil.indexOfSpecialChar(value) < 0) {
+			return value;
+		}
+		if (value.length() > maxValueLength) {
+			return FilterUtil.filterXss(value);
+		}
+		Segment segment = segments[spread(value.hashCode()) & (SEGMENT_COUNT - 1)];
+		String filtered;
+		synchronized (segment) {
+			filtered = segment.get(value);
+		}
+		if (filtered != null) {
+			hits.increment();
+			return filtered;
+		}
+		misses.increment();
+		filtered = FilterUtil.filterXss(value);
+		synchronized (segment) {
+			segment.put(value, filtered);
+		}
+		return filtered;
+	}
+
+	/**
+	 * 注册为JMX MBean，同名MBean已存在时不注册
+	 */
+	public synchronized void registerMBean(String name) {
+		if (objectName != null) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(XssValueCache.class.getPackage().getName()
+					+ ":type=XssValueCache,name=" + ObjectName.quote(name));
+			if (!server.isRegistered(on)) {
+				server.registerMBean(this, on);
+				objectName = on;
+			}
+		} catch (JMException e) {
+			LoggerFactoryUtil.error("Failed to register xss cache MBean " + name, e);
+		}
+	}
+
+	/**
+	 * 注销{@link #registerMBean(String)}注册的MBean，web应用停止时调用
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			LoggerFactoryUtil.error("Failed to unregister xss cache MBean " + objectName, e);
+		}
+		objectName = null;
+	}
+
+	@Override
+	public int getSize() {
+		return size();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	@Override
+	public double getHitRate() {
+		long h = hits.sum();
+		long total = h + misses.sum();
+		return total == 0 ? 0D : (double) h / total;
+	}
+
+	@Override
+	public void clear() {
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "XssValueCache[size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount()
+				+ ", evictions=" + getEvictionCount() + "]";
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	private class Segment extends LinkedHashMap<String, String> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			if (size() > maxSize) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+}
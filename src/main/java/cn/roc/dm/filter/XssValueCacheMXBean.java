@@ -0,0 +1,25 @@
+package cn.roc.dm.filter;
+
+/**
+ * {@link XssValueCache}的JMX接口，ObjectName为cn.roc.dm.filter:type=XssValueCache,name=&lt;缓存名&gt;
+ */
+public interface XssValueCacheMXBean {
+
+	/**
+	 * 当前缓存的条数
+	 */
+	int getSize();
+
+	long getHitCount();
+
+	long getMissCount();
+
+	long getEvictionCount();
+
+	double getHitRate();
+
+	/**
+	 * 清空缓存，不清空统计
+	 */
+	void clear();
+}
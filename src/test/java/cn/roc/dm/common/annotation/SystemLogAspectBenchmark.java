@@ -0,0 +1,98 @@
+package cn.roc.dm.common.annotation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SystemLogAspect 调用开销对比：CGLIB代理 与 编译期织入
+ * <ul>
+ *     <li>plain：未加注解的方法，直接调用，作为基线</li>
+ *     <li>annotated：加了@SystemServiceLog的方法，直接调用。默认编译时没有切面；以-Paspectj-ctw编译时即为织入后的开销</li>
+ *     <li>proxied：同一方法经AspectJProxyFactory生成的CGLIB代理调用，与spring-mvc.xml中aspectj-autoproxy的方式相同
+ *     （以-Paspectj-ctw编译时代理和织入会叠加，只看默认编译的结果）</li>
+ * </ul>
+ * 运行：分别执行 mvn test-compile 和 mvn test-compile -Paspectj-ctw 后执行本类的main方法，
+ * 比较默认编译的proxied与织入编译的annotated
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SystemLogAspectBenchmark {
+
+	private Service direct;
+
+	private Service proxied;
+
+	private int value;
+
+	@Setup
+	public void setup() {
+		direct = new Service();
+		AspectJProxyFactory factory = new AspectJProxyFactory(new Service());
+		factory.setProxyTargetClass(true);
+		factory.addAspect(SystemLogAspect.class);
+		proxied = factory.getProxy();
+	}
+
+	/**
+	 * ajc织入后的切面类会生成aspectOf方法
+	 */
+	private static boolean isWoven() {
+		try {
+			SystemLogAspect.class.getMethod("aspectOf");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public int plain() {
+		return direct.plain(value++);
+	}
+
+	@Benchmark
+	public int annotated() {
+		return direct.annotated(value++);
+	}
+
+	@Benchmark
+	public int proxied() {
+		return proxied.annotated(value++);
+	}
+
+	public static class Service {
+
+		public int plain(int i) {
+			return i * 31 + 7;
+		}
+
+		@SystemServiceLog(description = "benchmark")
+		public int annotated(int i) {
+			return i * 31 + 7;
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		// fork出的JVM使用相同的classpath，织入情况与这里一致
+		System.out.println("SystemLogAspect compile-time woven: " + isWoven());
+		new Runner(new OptionsBuilder().include(SystemLogAspectBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,115 @@
+package cn.roc.dm.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * DateFormats与new SimpleDateFormat(pattern)的结果对比
+ */
+public class DateFormatsTest {
+
+	private TimeZone defaultZone;
+
+	@Before
+	public void setUp() {
+		defaultZone = TimeZone.getDefault();
+		// 有夏令时的时区，覆盖重复和跳过的时间
+		TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+	}
+
+	@After
+	public void tearDown() {
+		TimeZone.setDefault(defaultZone);
+	}
+
+	@Test
+	public void parseMatchesSimpleDateFormat() {
+		assertParse("2016-10-08", "yyyy-MM-dd");
+		assertParse("2016-1-5", "yyyy-MM-dd");
+		assertParse("2016-13-45", "yyyy-MM-dd");
+		assertParse("2016-02-30", "yyyy-MM-dd");
+		assertParse("2016-10-08 12:30:01", "yyyy-MM-dd");
+		assertParse("2016-10-081", "yyyy-MM-dd");
+		assertParse(" 2016-10-08", "yyyy-MM-dd");
+		assertParse("1500-03-01", "yyyy-MM-dd");
+		assertParse("2016-10-08 08:25:30", "yyyy-MM-dd HH:mm:ss");
+		assertParse("2016-10-08 25:61:61", "yyyy-MM-dd HH:mm:ss");
+		assertParse("2016-10-08 08:25:30.123", "yyyy-MM-dd HH:mm:ss");
+		assertParse("2016-10-08 8:25:30", "yyyy-MM-dd HH:mm:ss");
+		assertParse("2005-10-30 01:32:52", "yyyy-MM-dd HH:mm:ss");
+		assertParse("2005-04-03 02:30:00", "yyyy-MM-dd HH:mm:ss");
+		assertParse("10/08", "MM/dd");
+		assertParse("99-10-08", "yy-MM-dd");
+		assertParse("16-10-08", "yy-MM-dd");
+		assertParse("2016-10-08 08:25:30.123", "yyyy-MM-dd HH:mm:ss.S");
+		assertParse("2016-10-08", "YYYY-MM-dd");
+		assertParse("2016-10-08 7", "yyyy-MM-dd u");
+		assertParse("20161008", "yyyyMMdd");
+		assertParse("2016/10/08 1:2:3", "yyyy/MM/dd H:m:s");
+	}
+
+	@Test
+	public void parseRejectsLikeSimpleDateFormat() {
+		for (String text : new String[]{"abc", "2016-", "", "-10-08"}) {
+			try {
+				new SimpleDateFormat("yyyy-MM-dd").parse(text);
+				fail("SimpleDateFormat parsed " + text);
+			} catch (ParseException expected) {
+				// 与DateFormats对比
+			}
+			try {
+				DateFormats.parseMillis(text, "yyyy-MM-dd");
+				fail("DateFormats parsed " + text);
+			} catch (DateTimeException expected) {
+				// 与SimpleDateFormat一致
+			}
+		}
+	}
+
+	@Test
+	public void formatMatchesSimpleDateFormat() {
+		String[] patterns = {"yyyy-MM-dd", "yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm:ss.S", "yyyy-MM-dd HH:mm:ss.SSS",
+				"yy-MM-dd", "YYYY-MM-dd", "u E", "MM/dd"};
+		Random random = new Random(20170511L);
+		for (int i = 0; i < 20000; i++) {
+			// 1000年前后到2100年以后
+			long millis = (long) (random.nextDouble() * 1.0E14) - 60000000000000L;
+			for (String pattern : patterns) {
+				assertEquals(pattern + " " + millis, new SimpleDateFormat(pattern).format(new Date(millis)),
+						DateFormats.format(millis, pattern));
+			}
+			String text = new SimpleDateFormat(DateFormats.LONG_DATE).format(new Date(millis));
+			assertParse(text, DateFormats.LONG_DATE);
+		}
+		assertEquals(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S").format(new Date(1475886330123L)),
+				DateFormats.format(new Date(1475886330123L), "yyyy-MM-dd HH:mm:ss.S"));
+	}
+
+	@Test
+	public void commUtilUsesSameRules() throws ParseException {
+		assertEquals(new SimpleDateFormat("MM/dd").parse("10/08"), CommUtil.formatDate("10/08", "MM/dd"));
+		assertEquals(new SimpleDateFormat("yy-MM-dd").parse("99-10-08"), CommUtil.formatDate("99-10-08", "yy-MM-dd"));
+		assertEquals(null, CommUtil.formatDate("abc"));
+	}
+
+	private static void assertParse(String text, String pattern) {
+		long expected;
+		try {
+			expected = new SimpleDateFormat(pattern).parse(text).getTime();
+		} catch (ParseException e) {
+			throw new AssertionError("SimpleDateFormat cannot parse " + text, e);
+		}
+		assertEquals(pattern + " " + text, expected, DateFormats.parseMillis(text, pattern));
+	}
+}
@@ -0,0 +1,174 @@
+package cn.roc.dm.filter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FilterUtil 性能测试，对比原replaceAll实现、逐字符扫描和批量检测
+ * <p>每次调用处理一组（256个）参数值，语料：
+ * <ul>
+ *     <li>ascii：编号、手机号、邮箱、URL、英文关键字，约3%含 &amp; 或 &lt;</li>
+ *     <li>cjk：中文名称、地址、描述</li>
+ *     <li>mixed：中英文混合的搜索词和备注，约5%含特殊字符</li>
+ * </ul>
+ * 运行：mvn test-compile 后执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterUtilBenchmark {
+
+	private static final int VALUE_COUNT = 256;
+
+	private static final String[] ASCII_WORDS = {"order", "20170511", "13800138000", "roc.chen@example.com",
+			"http://www.example.com/item/detail.shtml?id=1024", "iphone", "size", "L", "red", "true", "1", "page",
+			"Mozilla/5.0 (Windows NT 10.0; Win64; x64)", "keyword", "2017-05-11 14:02:00"};
+
+	private static final String CJK_CHARS = "的一是在不了有和人这中大为上个国我以要他时来用们生到作地于出就分对成会可主发年动同工也能下过子说产种面而方后多定行学法所民得经十三之进着等部度家电力里如水化高自二理起小物现实加量都两体制机当使点从业本去把性好应开它合还因由其些然前外天政四日那社义事平形相全表间样与关各重新线内数正心反你明看原又么利比或但质气第向道命此变条只没结解问意建月公无系军很情者最立代想已通并提直题党程展五果料象员革位入常文总次品式活设及管特件长求老头基资边流路级少图山统接知较将组见计别她手角期根论运农指几九区强放决西被干做必战先回则任取据处理府研";
+
+	private static final String[] SPECIALS = {"&", "<", ">", "'", "&amp;", "&lt;b&gt;"};
+
+	@Param({"ascii", "cjk", "mixed"})
+	public String corpus;
+
+	private String[] values;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(20170511L);
+		values = new String[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; i++) {
+			if ("ascii".equals(corpus)) {
+				values[i] = asciiValue(random);
+			} else if ("cjk".equals(corpus)) {
+				values[i] = cjkValue(random, 2 + random.nextInt(60));
+			} else {
+				values[i] = mixedValue(random);
+			}
+		}
+	}
+
+	@Benchmark
+	public void legacyReplaceAll(Blackhole bh) {
+		for (String value : values) {
+			bh.consume(legacyFilterXss(value));
+		}
+	}
+
+	@Benchmark
+	public void filterXss(Blackhole bh) {
+		for (String value : values) {
+			bh.consume(FilterUtil.filterXss(value));
+		}
+	}
+
+	@Benchmark
+	public void detectCharSwitch(Blackhole bh) {
+		for (String value : values) {
+			bh.consume(indexOfSpecialCharSwitch(value));
+		}
+	}
+
+	@Benchmark
+	public void detectBitmapAndIndexOf(Blackhole bh) {
+		for (String value : values) {
+			bh.consume(FilterUtil.indexOfSpecialChar(value));
+		}
+	}
+
+	/**
+	 * 原FilterUtil.filterXss的实现
+	 */
+	static String legacyFilterXss(String content) {
+		content = content.replaceAll("<", "&lt;")
+				.replaceAll(">", "&gt;")
+				.replaceAll("'", "&#39;")
+				.replaceAll("&", "&amp;");
+		content = content.replaceAll("&amp;amp;", "&amp;")
+				.replaceAll("&amp;gt;", "&gt;")
+				.replaceAll("&amp;lt;", "&lt;")
+				.replaceAll("&amp;apos;", "&apos;")
+				.replaceAll("&amp;quot;", "&quot;")
+				.replaceAll("&amp;nbsp;", "&nbsp;")
+				.replaceAll("&amp;#61;", "&#61;")
+				.replaceAll("&amp;#96;", "&#96;")
+				.replaceAll("&amp;#39;", "&#39;");
+		return content;
+	}
+
+	static int indexOfSpecialCharSwitch(String content) {
+		for (int i = 0; i < content.length(); i++) {
+			switch (content.charAt(i)) {
+				case '<':
+				case '>':
+				case '\'':
+				case '&':
+					return i;
+				default:
+			}
+		}
+		return -1;
+	}
+
+	private static String asciiValue(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int words = 1 + random.nextInt(4);
+		for (int i = 0; i < words; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(ASCII_WORDS[random.nextInt(ASCII_WORDS.length)]);
+		}
+		if (random.nextInt(100) < 3) {
+			sb.insert(random.nextInt(sb.length()), random.nextBoolean() ? "&" : "<");
+		}
+		return sb.toString();
+	}
+
+	private static String cjkValue(Random random, int length) {
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			sb.append(CJK_CHARS.charAt(random.nextInt(CJK_CHARS.length())));
+		}
+		return sb.toString();
+	}
+
+	private static String mixedValue(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int parts = 1 + random.nextInt(5);
+		for (int i = 0; i < parts; i++) {
+			if (random.nextBoolean()) {
+				sb.append(cjkValue(random, 1 + random.nextInt(12)));
+			} else {
+				sb.append(ASCII_WORDS[random.nextInt(ASCII_WORDS.length)]);
+			}
+		}
+		if (random.nextInt(100) < 5) {
+			sb.insert(random.nextInt(sb.length()), SPECIALS[random.nextInt(SPECIALS.length)]);
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(FilterUtilBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,75 @@
+package cn.roc.dm.filter;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * FilterUtil与原replaceAll实现的对比测试
+ * <p>语料由特殊字符、各种实体片段和普通字符随机拼接，覆盖实体的前缀、重复转义等情况
+ */
+public class FilterUtilTest {
+
+	private static final String[] FRAGMENTS = {"<", ">", "'", "&", ";", "#", "&amp;", "&amp;amp;", "&lt;", "&gt;",
+			"&apos;", "&quot;", "&nbsp;", "&#61;", "&#96;", "&#39;", "&amp;lt;", "&amp;gt;", "&amp;#39;", "&am", "&l",
+			"&#", "&#3", "amp;", "lt;", "gt", "a", "1", " ", "中", "文", "\n", "é", "😀"};
+
+	@Test
+	public void filterXssMatchesLegacy() {
+		for (String value : corpus()) {
+			assertEquals(value, FilterUtilBenchmark.legacyFilterXss(value), FilterUtil.filterXss(value));
+		}
+	}
+
+	@Test
+	public void deFilterXssMatchesLegacy() {
+		for (String value : corpus()) {
+			assertEquals(value, legacyDeFilterXss(value), FilterUtil.deFilterXss(value));
+		}
+	}
+
+	@Test
+	public void filterXssEdgeCases() {
+		String[] values = {"", "plain text", "中文", "&", "&&", "&amp;&amp;", "<script>alert('x')</script>",
+				"&lt;&gt;", "&amp;amp;amp;", "&#39;&#39;", "a&b=c&d"};
+		for (String value : values) {
+			assertEquals(value, FilterUtilBenchmark.legacyFilterXss(value), FilterUtil.filterXss(value));
+			assertEquals(value, legacyDeFilterXss(value), FilterUtil.deFilterXss(value));
+		}
+	}
+
+	private static String[] corpus() {
+		Random random = new Random(20170511L);
+		String[] values = new String[50000];
+		for (int i = 0; i < values.length; i++) {
+			StringBuilder sb = new StringBuilder();
+			int count = random.nextInt(12);
+			for (int j = 0; j < count; j++) {
+				sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			}
+			values[i] = sb.toString();
+		}
+		return values;
+	}
+
+	/**
+	 * 原FilterUtil.deFilterXss的实现
+	 */
+	static String legacyDeFilterXss(String content) {
+		return content.replaceAll("&lt;", "<")
+				.replaceAll("&gt;", ">")
+				.replaceAll("&#39;", "'")
+				.replaceAll("&#39;", "&amp;#39;")
+				.replaceAll("&#96;", "&amp;#96;")
+				.replaceAll("&#61;", "&amp;#61;")
+				.replaceAll("&nbsp;", "&amp;nbsp;")
+				.replaceAll("&quot;", "&amp;quot;")
+				.replaceAll("&apos;", "&amp;apos;")
+				.replaceAll("&lt;", "&amp;lt;")
+				.replaceAll("&gt;", "&amp;gt;")
+				.replaceAll("&amp;", "&amp;amp;")
+				.replaceAll("&amp;", "&");
+	}
+}